@@ -11,6 +11,8 @@
 package averroes;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -19,6 +21,7 @@ import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
@@ -40,8 +43,12 @@ import org.apache.commons.io.FileUtils;
 
 import soot.SootMethod;
 import averroes.exceptions.Assertions;
+import averroes.options.AverroesOptions;
+import averroes.soot.LibraryClassWriter;
 import averroes.soot.Names;
 import averroes.util.io.Paths;
+import averroes.util.io.RawZipEntry;
+import averroes.util.io.RawZipOutputStream;
 
 /**
  * A JAR file is a collection of class files. We use BCEL to verify that the
@@ -52,7 +59,10 @@ import averroes.util.io.Paths;
  */
 public class JarFile {
 
+	private static final String AVERROES_LIBRARY_CLASS_FILE = Names.AVERROES_LIBRARY_CLASS_BC_SIG + ".class";
+
 	private JarOutputStream jarOutputStream;
+	private RawZipOutputStream rawOutputStream;
 	private File fileName;
 	private static Set<JavaClass> bcelClasses = new HashSet<JavaClass>();
 
@@ -63,6 +73,7 @@ public class JarFile {
 	 */
 	public JarFile(File file) {
 		jarOutputStream = null;
+		rawOutputStream = null;
 		this.fileName = file;
 	}
 
@@ -81,19 +92,56 @@ public class JarFile {
 		return jarOutputStream;
 	}
 
+	/**
+	 * Get the raw output stream of this JAR archive. This stream is used to
+	 * copy entries from other archives without recompressing them, and it
+	 * cannot be mixed with {@link #getJarOutputStream()} for the same file.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public RawZipOutputStream getRawOutputStream() throws IOException {
+		if (rawOutputStream == null) {
+			Manifest manifest = new Manifest();
+			manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			manifest.write(bytes);
+
+			rawOutputStream = new RawZipOutputStream(fileName.getPath());
+			rawOutputStream.putEntry(java.util.jar.JarFile.MANIFEST_NAME, bytes.toByteArray(),
+					System.currentTimeMillis());
+		}
+		return rawOutputStream;
+	}
+
 	/**
 	 * Add all the generated class files to the Jar file.
 	 * 
 	 * @throws IOException
 	 */
 	public void addGeneratedLibraryClassFiles() throws IOException {
+		// The class files kept in memory go straight into the JAR file and
+		// the BCEL repository
+		if (AverroesOptions.isInMemory()) {
+			long time = System.currentTimeMillis();
+			for (Map.Entry<String, byte[]> entry : LibraryClassWriter.getClassFiles().entrySet()) {
+				if (!entry.getKey().equals(AVERROES_LIBRARY_CLASS_FILE)) {
+					getRawOutputStream().putEntry(entry.getKey(), entry.getValue(), time);
+					ClassParser parser = new ClassParser(new ByteArrayInputStream(entry.getValue()), entry.getKey());
+					bcelClasses.add(parser.parse());
+				}
+			}
+			close();
+			return;
+		}
+
 		Set<String> classFiles = new HashSet<String>();
 		File dir = Paths.libraryClassesOutputDirectory();
 		File placeholderJar = Paths.placeholderLibraryJarFile();
 
 		// Add the class files to the crafted JAR file.
 		FileUtils.listFiles(dir, new String[] { "class" }, true).stream()
-				.filter(f -> !relativize(dir, f).equals(Names.AVERROES_LIBRARY_CLASS_BC_SIG + ".class"))
+				.filter(f -> !relativize(dir, f).equals(AVERROES_LIBRARY_CLASS_FILE))
 				.forEach(file -> {
 					try {
 						String className = relativize(dir, file);
@@ -125,19 +173,36 @@ public class JarFile {
 		File placeholderJar = Paths.placeholderLibraryJarFile();
 		File averroesLibraryClassJar = Paths.averroesLibraryClassJarFile();
 
-		File file = FileUtils.listFiles(dir, new String[] { "class" }, true).stream()
-				.filter(f -> relativize(dir, f).equals(Names.AVERROES_LIBRARY_CLASS_BC_SIG + ".class"))
-				.collect(Collectors.toList()).get(0);
-		String className = relativize(dir, file);
+		JavaClass cls;
+		if (AverroesOptions.isInMemory()) {
+			byte[] bytes = LibraryClassWriter.getClassFiles().get(AVERROES_LIBRARY_CLASS_FILE);
+			if (bytes == null) {
+				throw new IllegalStateException("cannot find " + Names.AVERROES_LIBRARY_CLASS);
+			}
 
-		// Add the class file to the separately crafted JAR file.
-		if (file.isFile()) {
-			add(dir, file);
+			// Add the class file to the separately crafted JAR file.
+			getRawOutputStream().putEntry(AVERROES_LIBRARY_CLASS_FILE, bytes, System.currentTimeMillis());
+			close();
+			cls = new ClassParser(new ByteArrayInputStream(bytes), AVERROES_LIBRARY_CLASS_FILE).parse();
 		} else {
-			throw new IllegalStateException("cannot find " + Names.AVERROES_LIBRARY_CLASS
-					+ System.getProperty("line.separator") + "Invalid path given: " + fileName);
+			File file = FileUtils.listFiles(dir, new String[] { "class" }, true).stream()
+					.filter(f -> relativize(dir, f).equals(AVERROES_LIBRARY_CLASS_FILE))
+					.collect(Collectors.toList()).get(0);
+			String className = relativize(dir, file);
+
+			// Add the class file to the separately crafted JAR file.
+			if (file.isFile()) {
+				add(dir, file);
+			} else {
+				throw new IllegalStateException("cannot find " + Names.AVERROES_LIBRARY_CLASS
+						+ System.getProperty("line.separator") + "Invalid path given: " + fileName);
+			}
+			close();
+
+			ClassParser parser = new ClassParser(averroesLibraryClassJar.getPath(), className);
+			cls = parser.parse();
 		}
-		close();
+
 		// Set BCEL's repository class path.
 		SyntheticRepository rep = SyntheticRepository.getInstance(new ClassPath(averroesLibraryClassJar
 				+ File.pathSeparator + placeholderJar + File.pathSeparator + Paths.organizedApplicationJarFile() + File.pathSeparator + Paths.organizedLibraryJarFile()));
@@ -145,8 +210,6 @@ public class JarFile {
 
 		// Now add the class files (including ones from placeholder JAR) to the
 		// BCEL repository.
-		ClassParser parser = new ClassParser(averroesLibraryClassJar.getPath(), className);
-		JavaClass cls = parser.parse();
 		bcelClasses.add(cls);
 
 		// Now we need to add all the BCEL classes (including ones from previous
@@ -243,13 +306,30 @@ public class JarFile {
 		source.close();
 	}
 
+	/**
+	 * Add an entry copied from another archive to this JAR file. The data is
+	 * the compressed data of that entry exactly as it was stored in its
+	 * archive, so it is written without being inflated and deflated again.
+	 * 
+	 * @param entry
+	 * @param data
+	 * @throws IOException
+	 */
+	public void addRaw(RawZipEntry entry, byte[] data) throws IOException {
+		getRawOutputStream().putRawEntry(entry, data);
+	}
+
 	/**
 	 * Close the JAR output stream.
 	 * 
 	 * @throws IOException
 	 */
 	public void close() throws IOException {
-		getJarOutputStream().close();
+		if (rawOutputStream != null) {
+			rawOutputStream.close();
+		} else {
+			getJarOutputStream().close();
+		}
 	}
 
 	/**
@@ -13,32 +13,49 @@ package averroes;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
-import java.util.Enumeration;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.zip.ZipEntry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipException;
-import java.util.zip.ZipFile;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.FileFilterUtils;
 
 import averroes.exceptions.AverroesException;
 import averroes.options.AverroesOptions;
+import averroes.util.HashUtils;
 import averroes.util.io.Paths;
+import averroes.util.io.RawZipEntry;
+import averroes.util.io.RawZipFile;
 
 /**
  * Utility class to organize the input JAR files to Averroes into two JAR files
  * only: one for the application, and another one for the library. This process
  * does not alter the original class files in any way, it's merely copying the
- * class files into these temporary JAR files for convenience.
+ * class files into these temporary JAR files for convenience. The compressed
+ * data of every class file is copied as is, without inflating and deflating it
+ * again.
  * 
  * @author karim
  * 
  */
 public class JarOrganizer {
 
+	/**
+	 * The number of class entries read by one task in parallel mode.
+	 */
+	private static final int BATCH_SIZE = 512;
+
 	private Set<String> classNames;
 	private JarFile organizedApplicationJarFile;
 	private JarFile organizedLibraryJarFile;
@@ -46,6 +63,9 @@ public class JarOrganizer {
 	private Set<String> applicationClassNames;
 	private Set<String> libraryClassNames;
 
+	private MessageDigest libraryDigest;
+	private String libraryHash;
+
 	/**
 	 * Construct a new JAR organizer.
 	 */
@@ -53,6 +73,8 @@ public class JarOrganizer {
 		classNames = new HashSet<String>();
 		applicationClassNames = new HashSet<String>();
 		libraryClassNames = new HashSet<String>();
+		libraryDigest = HashUtils.newDigest();
+		libraryHash = null;
 		organizedApplicationJarFile = new JarFile(Paths.organizedApplicationJarFile());
 		organizedLibraryJarFile = new JarFile(Paths.organizedLibraryJarFile());
 	}
@@ -75,6 +97,18 @@ public class JarOrganizer {
 		return libraryClassNames;
 	}
 
+	/**
+	 * Get the hash of the names and contents of the library class files in the
+	 * organized library JAR file. This is only available after the input JAR
+	 * files are organized, and only calculated in incremental mode (it is null
+	 * otherwise).
+	 * 
+	 * @return
+	 */
+	public String libraryHash() {
+		return libraryHash;
+	}
+
 	/**
 	 * Organize the input JAR files into two JAR files only: one for application
 	 * classes, the other for library classes.
@@ -84,10 +118,17 @@ public class JarOrganizer {
 	 * @throws URISyntaxException
 	 */
 	public void organizeInputJarFiles() throws ZipException, IOException, AverroesException {
-		processInputs();
-		processDependencies();
+		if (AverroesOptions.isParallel()) {
+			processArchivesInParallel();
+		} else {
+			processInputs();
+			processDependencies();
+		}
 		organizedApplicationJarFile.close();
 		organizedLibraryJarFile.close();
+		if (AverroesOptions.isIncremental()) {
+			libraryHash = HashUtils.toHexString(libraryDigest.digest());
+		}
 	}
 
 	/**
@@ -124,13 +165,127 @@ public class JarOrganizer {
 	 * @param dir
 	 */
 	private void processJreArchives(String dir) {
+		findJreArchives(dir).forEach(file -> processArchive(file.getPath(), false));
+	}
+
+	/**
+	 * Find the JRE archives (recognized JAR files are: rt.jar, jsse.jar,
+	 * jce.jar) in the given directory.
+	 * 
+	 * @param dir
+	 * @return
+	 */
+	private List<File> findJreArchives(String dir) {
 		File directory = new File(dir);
 		org.apache.commons.io.filefilter.IOFileFilter nameFilter = FileFilterUtils.or(
 				FileFilterUtils.nameFileFilter("rt.jar"), FileFilterUtils.nameFileFilter("jsse.jar"),
 				FileFilterUtils.nameFileFilter("jce.jar"));
 
-		FileUtils.listFiles(directory, nameFilter, FileFilterUtils.trueFileFilter()).forEach(
-				file -> processArchive(file.getPath(), false));
+		return new ArrayList<File>(FileUtils.listFiles(directory, nameFilter, FileFilterUtils.trueFileFilter()));
+	}
+
+	/**
+	 * Get all the input archives in the order they appear on the path: the
+	 * application JAR files first, then the library JAR files, then the JRE
+	 * archives. This is the same order used by {@link #processInputs()} and
+	 * {@link #processDependencies()}.
+	 * 
+	 * @return
+	 */
+	private List<InputArchive> getInputArchives() {
+		List<InputArchive> result = new ArrayList<InputArchive>();
+
+		AverroesOptions.getApplicationJars().forEach(jar -> result.add(new InputArchive(jar, true)));
+		AverroesOptions.getLibraryJarFiles().forEach(lib -> result.add(new InputArchive(lib, false)));
+
+		if (!AverroesOptions.isAndroid()) {
+			String dir = "system".equals(AverroesOptions.getJreDirectory()) ? System.getProperty("java.home")
+					: AverroesOptions.getJreDirectory();
+			findJreArchives(dir).forEach(file -> result.add(new InputArchive(file.getPath(), false)));
+		}
+
+		// Exit if the fileName is empty
+		result.removeIf(archive -> archive.fileName.trim().length() <= 0);
+		return result;
+	}
+
+	/**
+	 * Process all the input archives using a pool of worker threads. The class
+	 * entries of every archive are split into batches that the workers read
+	 * concurrently, while the calling thread consumes the batches strictly in
+	 * path order. This way the earliest archive on the path still wins for a
+	 * duplicate class, and the organized JAR files have exactly the same
+	 * contents as in a sequential run. At most a fixed number of batches are
+	 * in flight at any time to keep the memory usage bounded.
+	 */
+	private void processArchivesInParallel() {
+		int threads = AverroesOptions.getThreadCount();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		Deque<Future<byte[][]>> inFlight = new ArrayDeque<Future<byte[][]>>();
+		List<EntryBatch> batches = new ArrayList<EntryBatch>();
+
+		try {
+			for (InputArchive input : getInputArchives()) {
+				batches.addAll(createEntryBatches(input));
+			}
+
+			int next = 0;
+			for (EntryBatch batch : batches) {
+				// Keep the work queue full
+				while (next < batches.size() && inFlight.size() < 2 * threads) {
+					EntryBatch toRead = batches.get(next++);
+					inFlight.add(pool.submit(() -> toRead.read()));
+				}
+
+				byte[][] contents = inFlight.remove().get();
+				if (batch.isFirst()) {
+					System.out.println("Processing " + (batch.input.fromApplicationArchive ? "input" : "library")
+							+ " archive: " + batch.input.file().getAbsolutePath());
+				}
+
+				for (int i = 0; i < batch.entries.size(); i++) {
+					byte[] data = contents[i];
+					addClass(batch.entries.get(i), () -> data, batch.input.fromApplicationArchive);
+				}
+
+				if (batch.isLast()) {
+					batch.archive.close();
+				}
+			}
+		} catch (IOException | InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Split the class entries of the given archive into batches.
+	 * 
+	 * @param input
+	 * @return
+	 * @throws IOException
+	 */
+	private List<EntryBatch> createEntryBatches(InputArchive input) throws IOException {
+		List<EntryBatch> result = new ArrayList<EntryBatch>();
+		RawZipFile archive = new RawZipFile(input.file());
+		List<RawZipEntry> entries = new ArrayList<RawZipEntry>();
+
+		for (RawZipEntry entry : archive.entries()) {
+			if (entry.getName().endsWith(".class")) {
+				entries.add(entry);
+			}
+		}
+
+		int batchCount = Math.max(1, (entries.size() + BATCH_SIZE - 1) / BATCH_SIZE);
+		for (int i = 0; i < batchCount; i++) {
+			List<RawZipEntry> batchEntries = entries.subList(i * BATCH_SIZE, Math.min(entries.size(), (i + 1)
+					* BATCH_SIZE));
+			result.add(new EntryBatch(input, archive, batchEntries, i, batchCount));
+		}
+
+		return result;
 	}
 
 	/**
@@ -150,13 +305,11 @@ public class JarOrganizer {
 				+ file.getAbsolutePath());
 
 		try {
-			ZipFile archive = new ZipFile(file);
-			Enumeration<? extends ZipEntry> entries = archive.entries();
+			RawZipFile archive = new RawZipFile(file);
 
-			while (entries.hasMoreElements()) {
-				ZipEntry entry = entries.nextElement();
+			for (RawZipEntry entry : archive.entries()) {
 				if (entry.getName().endsWith(".class")) {
-					addClass(archive, entry, fromApplicationArchive);
+					addClass(entry, () -> archive.readRawData(entry), fromApplicationArchive);
 				}
 			}
 			archive.close();
@@ -171,12 +324,12 @@ public class JarOrganizer {
 	 * application or library class files depending on the AverroesProperties
 	 * file.
 	 * 
-	 * @param archive
 	 * @param entry
+	 * @param data
 	 * @param fromApplicationArchive
 	 * @throws IOException
 	 */
-	private void addClass(ZipFile archive, ZipEntry entry, boolean fromApplicationArchive) throws IOException {
+	private void addClass(RawZipEntry entry, RawData data, boolean fromApplicationArchive) throws IOException {
 		String className = entry.getName().replace('/', '.').replace(".class", "");
 
 		if (classNames.contains(className)) {
@@ -199,10 +352,10 @@ public class JarOrganizer {
 			 * org.apache.xalan.templates.OutputProperties$1).
 			 */
 			if (AverroesOptions.isApplicationClass(className) && fromApplicationArchive) {
-				extractApplicationClassFile(archive, entry);
+				extractApplicationClassFile(entry, data);
 				applicationClassNames.add(className);
 			} else {
-				extractLibraryClassFile(archive, entry);
+				extractLibraryClassFile(entry, data);
 				libraryClassNames.add(className);
 			}
 
@@ -213,36 +366,137 @@ public class JarOrganizer {
 	/**
 	 * Extract an application class file.
 	 * 
-	 * @param sourceArchive
 	 * @param entry
+	 * @param data
 	 * @throws IOException
 	 */
-	private void extractApplicationClassFile(ZipFile sourceArchive, ZipEntry entry) throws IOException {
-		extractClassFile(sourceArchive, entry, organizedApplicationJarFile);
+	private void extractApplicationClassFile(RawZipEntry entry, RawData data) throws IOException {
+		extractClassFile(entry, data, organizedApplicationJarFile);
 	}
 
 	/**
 	 * Extract a library class file.
 	 * 
-	 * @param sourceArchive
 	 * @param entry
+	 * @param data
 	 * @throws IOException
 	 */
-	private void extractLibraryClassFile(ZipFile sourceArchive, ZipEntry entry) throws IOException {
-		extractClassFile(sourceArchive, entry, organizedLibraryJarFile);
+	private void extractLibraryClassFile(RawZipEntry entry, RawData data) throws IOException {
+		// The library hash is only needed to check the placeholder library of
+		// a previous run in incremental mode
+		if (AverroesOptions.isIncremental()) {
+			byte[] bytes = data.read();
+			updateLibraryHash(entry, bytes);
+			extractClassFile(entry, () -> bytes, organizedLibraryJarFile);
+		} else {
+			extractClassFile(entry, data, organizedLibraryJarFile);
+		}
+	}
+
+	/**
+	 * Add a library class file to the hash of the organized library JAR file.
+	 * 
+	 * @param entry
+	 * @param bytes
+	 */
+	private void updateLibraryHash(RawZipEntry entry, byte[] bytes) {
+		byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+		ByteBuffer header = ByteBuffer.allocate(24);
+		header.putInt(name.length).putInt(entry.getMethod()).putLong(entry.getCrc()).putLong(entry.getSize());
+
+		libraryDigest.update(header.array());
+		libraryDigest.update(name);
+		libraryDigest.update(bytes);
 	}
 
 	/**
 	 * Extract a class file to specified file.
 	 * 
-	 * @param sourceArchive
 	 * @param entry
+	 * @param data
 	 * @param destArchive
 	 * @throws IOException
 	 */
-	private void extractClassFile(ZipFile sourceArchive, ZipEntry entry, JarFile destArchive) throws IOException {
-		// Write out the class file to the destination archive directly. No
-		// temporary file used.
-		destArchive.add(sourceArchive.getInputStream(entry), entry.getName());
+	private void extractClassFile(RawZipEntry entry, RawData data, JarFile destArchive) throws IOException {
+		// Write out the compressed class file to the destination archive
+		// directly. No temporary file used, and no recompression either.
+		destArchive.addRaw(entry, data.read());
+	}
+
+	/**
+	 * The compressed data of a class file entry. It is only read if the class
+	 * file is actually copied to one of the organized JAR files.
+	 * 
+	 * @author karim
+	 * 
+	 */
+	@FunctionalInterface
+	private interface RawData {
+		public byte[] read() throws IOException;
+	}
+
+	/**
+	 * An input archive on the path, and whether it is an application archive.
+	 * 
+	 * @author karim
+	 * 
+	 */
+	private static class InputArchive {
+		private String fileName;
+		private boolean fromApplicationArchive;
+
+		private InputArchive(String fileName, boolean fromApplicationArchive) {
+			this.fileName = fileName;
+			this.fromApplicationArchive = fromApplicationArchive;
+		}
+
+		private File file() {
+			return new File(fileName);
+		}
+	}
+
+	/**
+	 * A batch of consecutive class entries in an input archive that is read by
+	 * one worker thread in parallel mode.
+	 * 
+	 * @author karim
+	 * 
+	 */
+	private static class EntryBatch {
+		private InputArchive input;
+		private RawZipFile archive;
+		private List<RawZipEntry> entries;
+		private int index;
+		private int count;
+
+		private EntryBatch(InputArchive input, RawZipFile archive, List<RawZipEntry> entries, int index, int count) {
+			this.input = input;
+			this.archive = archive;
+			this.entries = entries;
+			this.index = index;
+			this.count = count;
+		}
+
+		private boolean isFirst() {
+			return index == 0;
+		}
+
+		private boolean isLast() {
+			return index == count - 1;
+		}
+
+		/**
+		 * Read the compressed data of all the entries in this batch.
+		 * 
+		 * @return
+		 * @throws IOException
+		 */
+		private byte[][] read() throws IOException {
+			byte[][] result = new byte[entries.size()][];
+			for (int i = 0; i < entries.size(); i++) {
+				result[i] = archive.readRawData(entries.get(i));
+			}
+			return result;
+		}
 	}
 }
@@ -27,12 +27,14 @@ import soot.SootMethod;
 import soot.SourceLocator;
 import soot.options.Options;
 import averroes.android.SetupAndroid;
+import averroes.cache.IncrementalManifest;
 import averroes.options.AverroesOptions;
 import averroes.soot.CodeGenerator;
 import averroes.soot.Hierarchy;
 import averroes.soot.JarFactoryClassProvider;
 import averroes.soot.SootSceneUtil;
 import averroes.util.MathUtils;
+import averroes.util.MemberResolutionCache;
 import averroes.util.TimeUtils;
 import averroes.util.io.Paths;
 
@@ -139,6 +141,9 @@ public class Main {
 			System.out.println("# initial library fields: " + Hierarchy.v().getLibraryFieldCount());
 			System.out.println("# referenced library methods: " + Hierarchy.v().getReferencedLibraryMethodCount());
 			System.out.println("# referenced library fields: " + Hierarchy.v().getReferencedLibraryFieldCount());
+			System.out.println("# resolved library references: " + MemberResolutionCache.v().getMissCount() + " ("
+					+ MemberResolutionCache.v().getHitRate() + "% cache hits) in "
+					+ MemberResolutionCache.v().getResolutionTime() + " seconds");
 
 			// Cleanup the hierarchy
 			System.out.println("");
@@ -158,24 +163,41 @@ public class Main {
 			System.out.println("# generated library classes: " + CodeGenerator.v().getGeneratedClassCount());
 			System.out.println("# generated library methods: " + CodeGenerator.v().getGeneratedMethodCount());
 
+			// In incremental mode, keep the placeholder library of the previous
+			// run if it has everything this run needs
+			IncrementalManifest manifest = null;
+			boolean keepPlaceholderLibrary = false;
+			if (AverroesOptions.isIncremental()) {
+				manifest = IncrementalManifest.create(jarOrganizer.libraryHash(), AverroesOptions.isAndroid(),
+						AverroesOptions.isCompactStubs(), CodeGenerator.v().getLibraryClasses(),
+						CodeGenerator.v().getGeneratedLibraryClasses(),
+						Hierarchy.v().getBasicClassesDatabase().getMissingBasicClassNames());
+				keepPlaceholderLibrary = Paths.placeholderLibraryJarFile().isFile()
+						&& manifest.isSatisfiedBy(IncrementalManifest.load(Paths.placeholderLibraryManifestFile()));
+			}
+
 			// Create the Averroes library class
 			System.out.println("");
 			System.out.println("Creating the skeleton for Averroes's main library class ...");
 			CodeGenerator.v().createAverroesLibraryClass();
 
-			// Create method bodies to the library classes
-			System.out.println("Generating the method bodies for the placeholder library classes ...");
-			CodeGenerator.v().createLibraryMethodBodies();
-
-			// Create empty classes for the basic classes required internally by
-			// Soot
-			System.out.println("Generating empty basic library classes required by Soot ...");
-			for (SootClass basicClass : Hierarchy.v().getBasicClassesDatabase().getMissingBasicClasses()) {
-				CodeGenerator.writeLibraryClassFile(basicClass);
+			if (keepPlaceholderLibrary) {
+				System.out.println("Keeping the placeholder library classes from the previous run ...");
+			} else {
+				// Create method bodies to the library classes
+				System.out.println("Generating the method bodies for the placeholder library classes ...");
+				CodeGenerator.v().createLibraryMethodBodies();
+
+				// Create empty classes for the basic classes required internally
+				// by Soot
+				System.out.println("Generating empty basic library classes required by Soot ...");
+				for (SootClass basicClass : Hierarchy.v().getBasicClassesDatabase().getMissingBasicClasses()) {
+					CodeGenerator.writeLibraryClassFile(basicClass);
+				}
 			}
 
 			// Add all the phantom classes created by flowdroid if android
-			if (AverroesOptions.isAndroid()) {
+			if (AverroesOptions.isAndroid() && !keepPlaceholderLibrary) {
 				System.out.println("Generating the phantom classes for placeholder library ...");
 				Set<String> basicClasses = new HashSet<String>();
 				basicClasses.addAll(Scene.v().getBasicClasses());
@@ -194,8 +216,18 @@ public class Main {
 
 			// Create the jar file and add all the generated class files to it.
 			TimeUtils.reset();
-			JarFile librJarFile = new JarFile(Paths.placeholderLibraryJarFile());
-			librJarFile.addGeneratedLibraryClassFiles();
+			if (!keepPlaceholderLibrary) {
+				// The manifest of an older placeholder library must never
+				// describe this one, even if this run does not finish
+				FileUtils.deleteQuietly(Paths.placeholderLibraryManifestFile());
+
+				JarFile librJarFile = new JarFile(Paths.placeholderLibraryJarFile());
+				librJarFile.addGeneratedLibraryClassFiles();
+
+				if (manifest != null) {
+					manifest.save(Paths.placeholderLibraryManifestFile());
+				}
+			}
 			JarFile aveJarFile = new JarFile(Paths.averroesLibraryClassJarFile());
 			aveJarFile.addAverroesLibraryClassFile();
 			// Now verify all the generated class files
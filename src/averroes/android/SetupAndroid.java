@@ -3,14 +3,10 @@ package averroes.android;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import org.jf.dexlib2.dexbacked.raw.ClassDefItem;
-import org.jf.dexlib2.dexbacked.raw.MethodIdItem;
 import org.jf.dexlib2.dexbacked.raw.RawDexFile;
+import org.jf.dexlib2.iface.reference.MethodReference;
 import org.xmlpull.v1.XmlPullParserException;
 
 import soot.options.Options;
@@ -18,8 +14,6 @@ import averroes.exceptions.AverroesException;
 import averroes.options.AverroesOptions;
 import averroes.util.DexUtils;
 import soot.Scene;
-import soot.Type;
-import soot.coffi.Util;
 import soot.jimple.infoflow.android.SetupApplication;
 
 /**
@@ -38,7 +32,9 @@ public class SetupAndroid {
 	private String apkFileLocation;
 	private String androidJars;
 	//private SootMethod dummyMain = null;
-	private RawDexFile rawDex;
+	private List<RawDexFile> rawDexFiles;
+	private int referencedApplicationClassCount = -1;
+	private int referencedApplicationMethodCount = -1;
 
 	public static SetupAndroid v() {
 		if (instance == null) {
@@ -102,62 +98,77 @@ public class SetupAndroid {
 	}
 	
 
-	public RawDexFile getRawDex() {
+	/**
+	 * Get all the dex files of the APK (i.e., classes.dex, classes2.dex, ...).
+	 * @return
+	 */
+	public List<RawDexFile> getRawDexFiles() {
 		// needs to be done after the constructor, hence the field is initialized here
-		if (rawDex == null) {
+		if (rawDexFiles == null) {
 			try {
-				rawDex = DexUtils.getRawDex(new File(apkFileLocation), null);
+				rawDexFiles = DexUtils.getRawDexFiles(new File(apkFileLocation));
 			} catch (IOException ioEx) {
 				ioEx.printStackTrace();
+				rawDexFiles = Collections.emptyList();
 			}
 		}
-		return rawDex;
+		return rawDexFiles;
 	}
 
+	/**
+	 * Get the number of application classes defined in the dex files.
+	 * @return
+	 */
 	public int getReferencedApplicationClassCount() {
-		// TODO: Refactor
-		String[] classes = ClassDefItem.getClasses(getRawDex());
-		List<String> result = new LinkedList<>();
-
-		String patternString = AverroesOptions.getEscapedApplicationRegex();
-		Pattern p = Pattern.compile(patternString);
-
-		for (String s : classes) {
-			Type jimpleType = Util.v().jimpleTypeOfFieldDescriptor(s);
-			Matcher m = p.matcher(jimpleType.toString());
-			while (m.find()) {
-				String match = m.group();
-				result.add(match);
-			}
-		}
-
-		/*
-		 * for (String s: result) { System.out.println(s); }
-		 */
-		return result.size();
+		calculateStatistics();
+		return referencedApplicationClassCount;
 	}
 
+	/**
+	 * Get the number of methods of application classes referenced in the dex files.
+	 * @return
+	 */
 	public int getReferencedApplicationMethodCount() {
-		String[] methods = MethodIdItem.getMethods(getRawDex());
+		calculateStatistics();
+		return referencedApplicationMethodCount;
+	}
 
-		List<String> result = new LinkedList<>();
+	/**
+	 * Count the application classes and methods in one pass over the class and
+	 * method tables of the dex files. The classes are matched with the
+	 * application class matcher, which remembers the classes it has matched.
+	 */
+	private void calculateStatistics() {
+		if (referencedApplicationClassCount >= 0) {
+			return;
+		}
 
-		String patternString = AverroesOptions.getEscapedApplicationRegex();
-		Pattern p = Pattern.compile(patternString);
+		int classCount = 0;
+		int methodCount = 0;
+
+		for (String type : DexUtils.getClasses(getRawDexFiles())) {
+			if (isApplicationType(type)) {
+				classCount++;
+			}
+		}
 
-		for (String s : methods) {
-			String[] clazzAndMethod = s.split("-");
-			Type jimpleType = Util.v().jimpleTypeOfFieldDescriptor(clazzAndMethod[0]);
-			Matcher m = p.matcher(jimpleType.toString());
-			while (m.find()) {
-				String match = m.group();
-				result.add(s);
+		for (MethodReference method : DexUtils.getMethodReferences(getRawDexFiles())) {
+			if (isApplicationType(method.getDefiningClass())) {
+				methodCount++;
 			}
 		}
-		/*
-		 * for (String s: result) { System.out.println(s); }
-		 */
-		return result.size();
+
+		referencedApplicationClassCount = classCount;
+		referencedApplicationMethodCount = methodCount;
+	}
+
+	/**
+	 * Check if the given type descriptor is an application class.
+	 * @param type
+	 * @return
+	 */
+	private static boolean isApplicationType(String type) {
+		return AverroesOptions.isApplicationClass(DexUtils.getClassName(type));
 	}
 
 	public int getApiVersion() {
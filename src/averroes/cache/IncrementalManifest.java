@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Karim Ali and Ondřej Lhoták.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Karim Ali - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+package averroes.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+
+/**
+ * A description of the contents of a placeholder library JAR file. It records
+ * the hash of the organized library classes the placeholder library was
+ * generated from, and the classes, methods, and fields it contains (including
+ * the classes generated by Averroes). A later run in incremental mode can keep
+ * the placeholder library JAR file of a previous run if its library is the same
+ * and it still needs a subset of what that JAR file contains. In that case,
+ * only the Averroes library class has to be generated again.
+ * 
+ * The manifest is a text file with one item per line, where each line starts
+ * with the kind of the item (e.g., version, library, class, method, field,
+ * generated).
+ * 
+ * @author karim
+ * 
+ */
+public class IncrementalManifest {
+
+	private static final int VERSION = 1;
+
+	private String libraryHash;
+	private boolean android;
+	private boolean compact;
+	private Set<String> classes;
+	private Set<String> methods;
+	private Set<String> fields;
+	private Set<String> generatedClasses;
+
+	/**
+	 * Construct a new, empty incremental manifest.
+	 * 
+	 * @param libraryHash
+	 * @param android
+	 * @param compact
+	 */
+	private IncrementalManifest(String libraryHash, boolean android, boolean compact) {
+		this.libraryHash = libraryHash;
+		this.android = android;
+		this.compact = compact;
+		classes = new TreeSet<String>();
+		methods = new TreeSet<String>();
+		fields = new TreeSet<String>();
+		generatedClasses = new TreeSet<String>();
+	}
+
+	/**
+	 * Create the manifest of a placeholder library that consists of the given
+	 * classes.
+	 * 
+	 * @param libraryHash
+	 *            the hash of the organized library classes
+	 * @param android
+	 * @param compact
+	 *            whether the placeholder library methods use the LPT helper
+	 *            methods
+	 * @param libraryClasses
+	 * @param generatedClasses
+	 *            the classes generated by Averroes, these must be in
+	 *            libraryClasses too
+	 * @param basicClassNames
+	 *            the names of the empty basic classes generated for Soot
+	 * @return
+	 */
+	public static IncrementalManifest create(String libraryHash, boolean android, boolean compact,
+			Collection<SootClass> libraryClasses, Collection<SootClass> generatedClasses,
+			Collection<String> basicClassNames) {
+		IncrementalManifest result = new IncrementalManifest(libraryHash, android, compact);
+		result.classes.addAll(basicClassNames);
+
+		for (SootClass cls : libraryClasses) {
+			result.classes.add(cls.getName());
+			for (SootMethod method : cls.getMethods()) {
+				result.methods.add(method.getSignature());
+			}
+			for (SootField field : cls.getFields()) {
+				result.fields.add(field.getSignature());
+			}
+		}
+
+		for (SootClass cls : generatedClasses) {
+			result.generatedClasses.add(cls.getName());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Load the manifest stored in the given file. Returns null if the file does
+	 * not exist or was written by a different version of Averroes.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static IncrementalManifest load(File file) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+
+		IncrementalManifest result = null;
+		try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int space = line.indexOf(' ');
+				String kind = space < 0 ? line : line.substring(0, space);
+				String value = space < 0 ? "" : line.substring(space + 1);
+
+				if (result == null) {
+					// The first line has the version
+					if (!kind.equals("version") || !value.equals(VERSION + "")) {
+						return null;
+					}
+					result = new IncrementalManifest(null, false, false);
+				} else if (kind.equals("library")) {
+					result.libraryHash = value;
+				} else if (kind.equals("android")) {
+					result.android = Boolean.parseBoolean(value);
+				} else if (kind.equals("compact")) {
+					result.compact = Boolean.parseBoolean(value);
+				} else if (kind.equals("class")) {
+					result.classes.add(value);
+				} else if (kind.equals("method")) {
+					result.methods.add(value);
+				} else if (kind.equals("field")) {
+					result.fields.add(value);
+				} else if (kind.equals("generated")) {
+					result.generatedClasses.add(value);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Store this manifest in the given file.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		try (PrintWriter out = new PrintWriter(new BufferedWriter(Files.newBufferedWriter(temp.toPath(),
+				StandardCharsets.UTF_8)))) {
+			out.println("version " + VERSION);
+			out.println("library " + libraryHash);
+			out.println("android " + android);
+			out.println("compact " + compact);
+			classes.forEach(c -> out.println("class " + c));
+			methods.forEach(m -> out.println("method " + m));
+			fields.forEach(f -> out.println("field " + f));
+			generatedClasses.forEach(c -> out.println("generated " + c));
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Check if the placeholder library described by the given manifest can be
+	 * used instead of the one described by this manifest. That is the case if
+	 * both are generated from the same library in the same mode, and the given
+	 * one has all the classes, methods, and fields this one needs.
+	 * 
+	 * @param previous
+	 * @return
+	 */
+	public boolean isSatisfiedBy(IncrementalManifest previous) {
+		return previous != null && libraryHash.equals(previous.libraryHash) && android == previous.android
+				&& compact == previous.compact
+				&& previous.classes.containsAll(classes) && previous.methods.containsAll(methods)
+				&& previous.fields.containsAll(fields) && previous.generatedClasses.containsAll(generatedClasses);
+	}
+}
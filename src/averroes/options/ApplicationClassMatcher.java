@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Karim Ali and Ondřej Lhoták.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Karim Ali - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+package averroes.options;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A matcher for the application class patterns given by the
+ * {@link AverroesOptions#getApplicationRegex()} option. The patterns are
+ * compiled once: super packages go into a trie of package names, while
+ * packages and class names go into case-insensitive sets. The result for each
+ * class name is remembered, so every class is only matched once no matter how
+ * many times it is checked.
+ * 
+ * @author karim
+ * 
+ */
+public class ApplicationClassMatcher {
+
+	private Node superPackages;
+	private Set<String> packages;
+	private Set<String> classNames;
+	private boolean defaultPackage;
+
+	private Map<String, Boolean> memo;
+
+	/**
+	 * Construct a new matcher for the given patterns.
+	 * 
+	 * @param patterns
+	 */
+	public ApplicationClassMatcher(Collection<String> patterns) {
+		superPackages = new Node();
+		packages = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		classNames = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		defaultPackage = false;
+		memo = new ConcurrentHashMap<String, Boolean>();
+
+		for (String entry : patterns) {
+			/*
+			 * 1. If the entry ends with .* then this means it's a package. 2.
+			 * If the entry ends with .** then it's a super package. 3. If the
+			 * entry is **, then it's the default package. 4. Otherwise, it's
+			 * the full class name.
+			 */
+			if (entry.endsWith(".*")) {
+				packages.add(entry.replace(".*", ""));
+			} else if (entry.endsWith(".**")) {
+				addSuperPackage(entry.replace("**", ""));
+			} else if (entry.equalsIgnoreCase("**")) {
+				defaultPackage = true;
+			} else {
+				classNames.add(entry);
+			}
+		}
+	}
+
+	/**
+	 * Check if the given class matches any of the application patterns.
+	 * 
+	 * @param className
+	 * @return
+	 */
+	public boolean matches(String className) {
+		Boolean result = memo.get(className);
+		if (result == null) {
+			result = match(className);
+			memo.put(className, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Match the given class against the patterns.
+	 * 
+	 * @param className
+	 * @return
+	 */
+	private boolean match(String className) {
+		int dot = className.lastIndexOf('.');
+		String pkg = dot < 0 ? "" : className.substring(0, dot);
+
+		return packages.contains(pkg) || isInSuperPackage(className) || (defaultPackage && pkg.isEmpty())
+				|| classNames.contains(className);
+	}
+
+	/**
+	 * Add a super package to the trie. The prefix is the name of the package
+	 * followed by a dot (e.g., java.lang.).
+	 * 
+	 * @param prefix
+	 */
+	private void addSuperPackage(String prefix) {
+		Node node = superPackages;
+		int start = 0;
+		int dot;
+		while ((dot = prefix.indexOf('.', start)) >= 0) {
+			node = node.child(prefix.substring(start, dot), true);
+			start = dot + 1;
+		}
+		node.superPackage = true;
+	}
+
+	/**
+	 * Check if the given class is in any of the super packages, by walking
+	 * down the trie one package name at a time.
+	 * 
+	 * @param className
+	 * @return
+	 */
+	private boolean isInSuperPackage(String className) {
+		Node node = superPackages;
+		int start = 0;
+		int dot;
+		while ((dot = className.indexOf('.', start)) >= 0) {
+			node = node.child(className.substring(start, dot), false);
+			if (node == null) {
+				return false;
+			} else if (node.superPackage) {
+				return true;
+			}
+			start = dot + 1;
+		}
+
+		return false;
+	}
+
+	/**
+	 * A node in the trie of super packages. Each edge is labeled with a
+	 * package name.
+	 * 
+	 * @author karim
+	 * 
+	 */
+	private static class Node {
+		private Map<String, Node> children = new HashMap<String, Node>();
+		private boolean superPackage = false;
+
+		/**
+		 * Get the child of this node for the given package name.
+		 * 
+		 * @param name
+		 * @param create
+		 * @return
+		 */
+		private Node child(String name, boolean create) {
+			Node result = children.get(name);
+			if (result == null && create) {
+				result = new Node();
+				children.put(name, result);
+			}
+			return result;
+		}
+	}
+}
@@ -27,7 +27,6 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
 import averroes.exceptions.AverroesException;
-import probe.ObjectManager;
 import probe.ProbeClass;
 import soot.SootClass;
 
@@ -43,6 +42,7 @@ import soot.SootClass;
 public final class AverroesOptions {
 
 	private static List<String> dynamicClasses = null;
+	private static ApplicationClassMatcher applicationClassMatcher = null;
 
 	private static Option applicationRegex = Option.builder("r").longOpt("application-regex")
 			.desc("a list of regular expressions for application packages or classes separated by File.pathSeparator")
@@ -81,12 +81,36 @@ public final class AverroesOptions {
 	private static Option platformDirectory = Option.builder("p").longOpt("android-platform-directory")
 			.desc("path to the android platforms directory that contains android.jar file").hasArg().argName("directory").required(false).build();
 
+	private static Option parallel = Option.builder("x").longOpt("parallel")
+			.desc("use all available processors for the phases of Averroes that can run in parallel").hasArg(false)
+			.required(false).build();
+
+	private static Option incremental = Option.builder("i").longOpt("incremental")
+			.desc("keep the placeholder library from a previous run in the output directory if it can still be used, and only regenerate the Averroes library class")
+			.hasArg(false).required(false).build();
+
+	private static Option reachableLibrary = Option.builder("s").longOpt("reachable-library")
+			.desc("only expose the library classes reachable from the application classes to Soot, instead of all the classes in the library")
+			.hasArg(false).required(false).build();
+
+	private static Option asmBackend = Option.builder("b").longOpt("asm-backend")
+			.desc("write the class files of the placeholder library directly with the ASM backend of Soot, instead of assembling them from Jasmin text")
+			.hasArg(false).required(false).build();
+
+	private static Option inMemory = Option.builder("e").longOpt("in-memory")
+			.desc("keep the generated class files in memory and write them straight into the placeholder library JAR files, instead of writing them to the classes directory first")
+			.hasArg(false).required(false).build();
+
+	private static Option compactStubs = Option.builder("k").longOpt("compact-stubs")
+			.desc("load and cast the library points-to set through shared helper methods in the Averroes abstract library class, instead of inlining these instructions in every placeholder library method")
+			.hasArg(false).required(false).build();
+
 	private static Option help = Option.builder("h").longOpt("help").desc("print out this help message").hasArg(false)
 			.required(false).build();
 
 	private static Options options = new Options().addOption(applicationRegex).addOption(mainClass)
 			.addOption(applicationJars).addOption(libraryJars).addOption(dynamicClassesFile)
-			.addOption(tamiflexFactsFile).addOption(outputDirectory).addOption(platformDirectory).addOption(jreDirectory).addOption(help);
+			.addOption(tamiflexFactsFile).addOption(outputDirectory).addOption(platformDirectory).addOption(jreDirectory).addOption(parallel).addOption(incremental).addOption(reachableLibrary).addOption(asmBackend).addOption(inMemory).addOption(compactStubs).addOption(help);
 
 	private static CommandLine cmd;
 	/**
@@ -109,6 +133,7 @@ public final class AverroesOptions {
 			// This is due to easier exception management (we can't pass the exception off of a lambda expression).
 			
 			cmd = new DefaultParser().parse(options, args);
+			applicationClassMatcher = new ApplicationClassMatcher(getApplicationRegex());
 			for (String s: getApplicationJars()) {
 				if (s.endsWith(".apk")) {
 					setAndroid(true);
@@ -185,6 +210,7 @@ public final class AverroesOptions {
 
 		return patternString;
 	}
+
 	/**
 	 * The main class that runs the application when the program executes.
 	 * 
@@ -303,6 +329,74 @@ public final class AverroesOptions {
 		return cmd.getOptionValue(jreDirectory.getOpt());
 	}
 
+	/**
+	 * Should Averroes run the phases that support it in parallel?
+	 * 
+	 * @return
+	 */
+	public static boolean isParallel() {
+		return cmd.hasOption(parallel.getOpt());
+	}
+
+	/**
+	 * The number of worker threads used when running in parallel mode.
+	 * 
+	 * @return
+	 */
+	public static int getThreadCount() {
+		return isParallel() ? Runtime.getRuntime().availableProcessors() : 1;
+	}
+
+	/**
+	 * Should Averroes keep the placeholder library from a previous run if it
+	 * can still be used?
+	 * 
+	 * @return
+	 */
+	public static boolean isIncremental() {
+		return cmd.hasOption(incremental.getOpt());
+	}
+
+	/**
+	 * Should Averroes only expose the library classes reachable from the
+	 * application classes to Soot?
+	 * 
+	 * @return
+	 */
+	public static boolean isReachableLibraryOnly() {
+		return cmd.hasOption(reachableLibrary.getOpt());
+	}
+
+	/**
+	 * Should Averroes write the class files of the placeholder library with
+	 * the ASM backend of Soot?
+	 * 
+	 * @return
+	 */
+	public static boolean isAsmBackend() {
+		return cmd.hasOption(asmBackend.getOpt());
+	}
+
+	/**
+	 * Should Averroes keep the generated class files in memory instead of
+	 * writing them to the classes directory?
+	 * 
+	 * @return
+	 */
+	public static boolean isInMemory() {
+		return cmd.hasOption(inMemory.getOpt());
+	}
+
+	/**
+	 * Should the placeholder library methods load and cast the library
+	 * points-to set through the shared helper methods?
+	 * 
+	 * @return
+	 */
+	public static boolean isCompactStubs() {
+		return cmd.hasOption(compactStubs.getOpt());
+	}
+
 	/**
 	 * Check if a class belongs to the application, based on the
 	 * {@value #APPLICATION_INCLUDES} property.
@@ -311,41 +405,19 @@ public final class AverroesOptions {
 	 * @return
 	 */
 	public static boolean isApplicationClass(ProbeClass probeClass) {
-		for (String entry : getApplicationRegex()) {
-			/*
-			 * 1. If the entry ends with .* then this means it's a package. 2.
-			 * If the entry ends with .** then it's a super package. 3. If the
-			 * entry is **, then it's the default package. 4. Otherwise, it's
-			 * the full class name.
-			 */
-			if (entry.endsWith(".*")) {
-				String pkg = entry.replace(".*", "");
-				if (probeClass.pkg().equalsIgnoreCase(pkg)) {
-					return true;
-				}
-			} else if (entry.endsWith(".**")) {
-				String pkg = entry.replace("**", "");
-				if (probeClass.toString().startsWith(pkg)) {
-					return true;
-				}
-			} else if (entry.equalsIgnoreCase("**") && probeClass.pkg().isEmpty()) {
-				return true;
-			} else if (entry.equalsIgnoreCase(probeClass.toString())) {
-				return true;
-			}
-		}
-		return false;
+		return isApplicationClass(probeClass.toString());
 	}
 
 	/**
 	 * Check if a class belongs to the application, based on the
-	 * {@link #applicationRegex} option.
+	 * {@link #applicationRegex} option. The patterns are only compiled once,
+	 * and each class name is only matched once.
 	 * 
 	 * @param className
 	 * @return
 	 */
 	public static boolean isApplicationClass(String className) {
-		return isApplicationClass(ObjectManager.v().getClass(className));
+		return applicationClassMatcher.matches(className);
 	}
 
 	/**
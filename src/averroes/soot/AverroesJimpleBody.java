@@ -11,6 +11,7 @@
 package averroes.soot;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -55,6 +56,7 @@ public class AverroesJimpleBody {
 	private Set<Local> invokeReturnVariables;
 	private LocalVariableNumberer numberer;
 	private Map<Type, Local> lptCastToType;
+	private boolean compact;
 
 	/**
 	 * Construct a new Jimple body for an Averroes library method.
@@ -62,6 +64,20 @@ public class AverroesJimpleBody {
 	 * @param method
 	 */
 	public AverroesJimpleBody(SootMethod method) {
+		this(method, false);
+	}
+
+	/**
+	 * Construct a new Jimple body for an Averroes library method. If compact is
+	 * true, the LPT is loaded and cast to a given type by calling the helper
+	 * method {@link CodeGenerator#getLptHelper(Type)} returns for that type,
+	 * instead of inserting these statements in the body.
+	 * 
+	 * @param method
+	 * @param compact
+	 */
+	public AverroesJimpleBody(SootMethod method, boolean compact) {
+		this.compact = compact;
 		lpt = null;
 		fpt = null;
 		instance = null;
@@ -352,7 +368,15 @@ public class AverroesJimpleBody {
 	 */
 	public Local castLptToType(Type type) {
 		if (!lptCastToType.containsKey(type)) {
-			Local tmp = insertCastStatement(getLpt(), type);
+			Local tmp;
+			if (compact) {
+				tmp = newLocal(type);
+				SootMethod helper = CodeGenerator.v().getLptHelper(type);
+				insertAssignmentStatement(tmp,
+						Jimple.v().newStaticInvokeExpr(helper.makeRef(), Collections.<Value> emptyList()));
+			} else {
+				tmp = insertCastStatement(getLpt(), type);
+			}
 			lptCastToType.put(type, tmp);
 		}
 		return lptCastToType.get(type);
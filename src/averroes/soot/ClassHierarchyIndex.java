@@ -0,0 +1,589 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Karim Ali and Ondřej Lhoták.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Karim Ali - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+package averroes.soot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import soot.SootClass;
+import soot.SootMethod;
+import soot.util.NumberedString;
+
+/**
+ * A compact index of the class hierarchy. Every class gets a dense integer ID,
+ * where superclasses and superinterfaces always get lower IDs than their
+ * subclasses. The superclass relation is a tree, so it is stored as the
+ * preorder number of each class in that tree and the size of its subtree,
+ * which makes subclass checks O(1) and the subclasses of a class a contiguous
+ * range of preorder numbers. The superinterfaces of a class are stored as an
+ * int array, which is shared with its superclass whenever the class does not
+ * directly implement any interface. Finally, every method subsignature is
+ * mapped to the sorted IDs of the classes that declare it, so finding the
+ * supermethods of a method only has to check a few ancestors against that list.
+ * 
+ * @author karim
+ * 
+ */
+public class ClassHierarchyIndex {
+
+	private static final int[] NONE = new int[0];
+
+	private Map<SootClass, Integer> classToId;
+	private List<SootClass> idToClass;
+
+	private int[] superclass;
+	private int[] level;
+	private int levelCount;
+	private int[] preorder;
+	private int[] subtreeSize;
+	private int[] preorderToId;
+
+	private int[][] superinterfaces;
+	private int[][] sortedSuperinterfaces;
+
+	private Map<NumberedString, int[]> subSignatureToDeclarers;
+
+	/**
+	 * Construct a new index for the given classes, and any of their
+	 * superclasses and superinterfaces. The superinterfaces are calculated by
+	 * the given number of worker threads.
+	 * 
+	 * @param classes
+	 * @param threads
+	 */
+	public ClassHierarchyIndex(Collection<SootClass> classes, int threads) {
+		classToId = new HashMap<SootClass, Integer>();
+		idToClass = new ArrayList<SootClass>();
+
+		for (SootClass cls : classes) {
+			assignId(cls);
+		}
+
+		int count = idToClass.size();
+		superclass = new int[count];
+		superinterfaces = new int[count][];
+		sortedSuperinterfaces = new int[count][];
+
+		for (int id = 0; id < count; id++) {
+			SootClass cls = idToClass.get(id);
+			superclass[id] = cls.hasSuperclass() ? classToId.get(cls.getSuperclass()) : -1;
+		}
+
+		calculateLevels();
+
+		if (threads > 1) {
+			calculateSuperinterfacesInParallel(threads);
+		} else {
+			// Superclasses and superinterfaces have lower IDs, so they are
+			// always done by the time their subclasses get processed
+			for (int id = 0; id < count; id++) {
+				calculateSuperinterfaces(id);
+			}
+		}
+
+		numberSuperclassTree();
+		indexMethodDeclarations();
+	}
+
+	/**
+	 * The number of classes in this index.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return idToClass.size();
+	}
+
+	/**
+	 * Check if the given class is in this index.
+	 * 
+	 * @param cls
+	 * @return
+	 */
+	public boolean contains(SootClass cls) {
+		return classToId.containsKey(cls);
+	}
+
+	/**
+	 * Get the ID of the given class, or -1 if it is not in this index.
+	 * 
+	 * @param cls
+	 * @return
+	 */
+	public int getId(SootClass cls) {
+		Integer id = classToId.get(cls);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Get the class with the given ID.
+	 * 
+	 * @param id
+	 * @return
+	 */
+	public SootClass getClass(int id) {
+		return idToClass.get(id);
+	}
+
+	/**
+	 * Get the ID of the direct superclass of the class with the given ID, or -1
+	 * if it has none.
+	 * 
+	 * @param id
+	 * @return
+	 */
+	public int getSuperclass(int id) {
+		return superclass[id];
+	}
+
+	/**
+	 * Get the IDs of all the superinterfaces of the class with the given ID.
+	 * The direct superinterfaces come first, followed by their
+	 * superinterfaces, then the superinterfaces of the direct superclass. The
+	 * returned array must not be modified.
+	 * 
+	 * @param id
+	 * @return
+	 */
+	public int[] getSuperinterfaces(int id) {
+		return superinterfaces[id];
+	}
+
+	/**
+	 * Check if the class with ID possibleChild is a (strict) subclass of the
+	 * class with ID id.
+	 * 
+	 * @param possibleChild
+	 * @param id
+	 * @return
+	 */
+	public boolean isSubclassOf(int possibleChild, int id) {
+		return preorder[id] < preorder[possibleChild] && preorder[possibleChild] < preorder[id] + subtreeSize[id];
+	}
+
+	/**
+	 * Check if the class with ID possibleChild implements (directly or not) the
+	 * interface with ID iface.
+	 * 
+	 * @param possibleChild
+	 * @param iface
+	 * @return
+	 */
+	public boolean isSubinterfaceOf(int possibleChild, int iface) {
+		return Arrays.binarySearch(sortedSuperinterfaces[possibleChild], iface) >= 0;
+	}
+
+	/**
+	 * Get the IDs of all the (strict) subclasses of the class with the given
+	 * ID, in the preorder of the superclass tree.
+	 * 
+	 * @param id
+	 * @return
+	 */
+	public int[] getSubclasses(int id) {
+		int[] result = new int[subtreeSize[id] - 1];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = preorderToId[preorder[id] + 1 + i];
+		}
+		return result;
+	}
+
+	/**
+	 * Get the level of the class with the given ID in the hierarchy. Classes
+	 * without supertypes are at level 0, and the level of every other class is
+	 * one more than the highest level of its direct supertypes. Classes at the
+	 * same level are never subtypes of each other.
+	 * 
+	 * @param id
+	 * @return
+	 */
+	public int getLevel(int id) {
+		return level[id];
+	}
+
+	/**
+	 * The number of levels in the hierarchy.
+	 * 
+	 * @return
+	 */
+	public int getLevelCount() {
+		return levelCount;
+	}
+
+	/**
+	 * Get the IDs of all the classes that declare a method with the given
+	 * subsignature, in increasing order. The returned array must not be
+	 * modified.
+	 * 
+	 * @param subSignature
+	 * @return
+	 */
+	public int[] getDeclaringClasses(NumberedString subSignature) {
+		int[] result = subSignatureToDeclarers.get(subSignature);
+		return result == null ? NONE : result;
+	}
+
+	/**
+	 * Check if the class with the given ID declared a method with the given
+	 * subsignature when this index was built.
+	 * 
+	 * @param id
+	 * @param subSignature
+	 * @return
+	 */
+	public boolean declaresMethod(int id, NumberedString subSignature) {
+		return Arrays.binarySearch(getDeclaringClasses(subSignature), id) >= 0;
+	}
+
+	/**
+	 * Get the IDs of all the classes in a topological order of the hierarchy,
+	 * i.e., every class comes after its superclass and its direct
+	 * superinterfaces. This uses Kahn's algorithm, and picks the class with the
+	 * smallest name whenever more than one class is ready, so the order is
+	 * deterministic.
+	 * 
+	 * @return
+	 */
+	public int[] getTopologicalOrder() {
+		int count = idToClass.size();
+		int[] supertypes = new int[count];
+		int[] subtypeStart = new int[count + 1];
+
+		// Count the direct subtypes of each class, and the direct supertypes of
+		// each class as its in-degree
+		for (int id = 0; id < count; id++) {
+			for (int sup : getDirectSupertypes(id)) {
+				supertypes[id]++;
+				subtypeStart[sup + 1]++;
+			}
+		}
+		for (int id = 0; id < count; id++) {
+			subtypeStart[id + 1] += subtypeStart[id];
+		}
+		int[] subtypes = new int[subtypeStart[count]];
+		int[] next = Arrays.copyOf(subtypeStart, count);
+		for (int id = 0; id < count; id++) {
+			for (int sup : getDirectSupertypes(id)) {
+				subtypes[next[sup]++] = id;
+			}
+		}
+
+		PriorityQueue<Integer> ready = new PriorityQueue<Integer>(Math.max(count, 1),
+				(a, b) -> idToClass.get(a).getName().compareTo(idToClass.get(b).getName()));
+		for (int id = 0; id < count; id++) {
+			if (supertypes[id] == 0) {
+				ready.add(id);
+			}
+		}
+
+		int[] result = new int[count];
+		int size = 0;
+		while (!ready.isEmpty()) {
+			int id = ready.poll();
+			result[size++] = id;
+			for (int s = subtypeStart[id]; s < subtypeStart[id + 1]; s++) {
+				if (--supertypes[subtypes[s]] == 0) {
+					ready.add(subtypes[s]);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Get the IDs of the direct superclass and the direct superinterfaces of the
+	 * class with the given ID, without duplicates.
+	 * 
+	 * @param id
+	 * @return
+	 */
+	private int[] getDirectSupertypes(int id) {
+		IntList result = new IntList();
+		if (superclass[id] >= 0) {
+			result.addIfAbsent(superclass[id]);
+		}
+		for (SootClass iface : idToClass.get(id).getInterfaces()) {
+			result.addIfAbsent(classToId.get(iface));
+		}
+		return result.toArray();
+	}
+
+	/**
+	 * Assign an ID to the given class, after its superclass and its
+	 * superinterfaces.
+	 * 
+	 * @param cls
+	 * @return
+	 */
+	private int assignId(SootClass cls) {
+		Integer id = classToId.get(cls);
+		if (id == null) {
+			if (cls.hasSuperclass()) {
+				assignId(cls.getSuperclass());
+			}
+			for (SootClass iface : cls.getInterfaces()) {
+				assignId(iface);
+			}
+
+			id = idToClass.size();
+			classToId.put(cls, id);
+			idToClass.add(cls);
+		}
+		return id;
+	}
+
+	/**
+	 * Calculate the level of every class. Supertypes have lower IDs, so their
+	 * levels are always known first.
+	 */
+	private void calculateLevels() {
+		int count = idToClass.size();
+		level = new int[count];
+		levelCount = 0;
+		for (int id = 0; id < count; id++) {
+			for (int sup : getDirectSupertypes(id)) {
+				level[id] = Math.max(level[id], level[sup] + 1);
+			}
+			levelCount = Math.max(levelCount, level[id] + 1);
+		}
+	}
+
+	/**
+	 * Calculate the superinterfaces of all the classes using a fork/join pool
+	 * of the given number of worker threads. The classes in a level only
+	 * depend on classes in lower levels, so each level is calculated in
+	 * parallel once the level before it is done.
+	 * 
+	 * @param threads
+	 */
+	private void calculateSuperinterfacesInParallel(int threads) {
+		int count = idToClass.size();
+
+		// The IDs of each level, in the compressed form
+		int[] levelStart = new int[levelCount + 1];
+		for (int id = 0; id < count; id++) {
+			levelStart[level[id] + 1]++;
+		}
+		for (int l = 0; l < levelCount; l++) {
+			levelStart[l + 1] += levelStart[l];
+		}
+		int[] ids = new int[count];
+		int[] next = Arrays.copyOf(levelStart, levelCount);
+		for (int id = 0; id < count; id++) {
+			ids[next[level[id]]++] = id;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			for (int l = 0; l < levelCount; l++) {
+				pool.invoke(new SuperinterfacesTask(ids, levelStart[l], levelStart[l + 1]));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Calculate the superinterfaces of the class with the given ID, in the
+	 * same order {@link Hierarchy#getSuperinterfacesOf(SootClass)} always
+	 * used.
+	 * 
+	 * @param id
+	 */
+	private void calculateSuperinterfaces(int id) {
+		SootClass cls = idToClass.get(id);
+		int parent = superclass[id];
+
+		// The common case, nothing to add to the superinterfaces of the
+		// superclass
+		if (cls.getInterfaceCount() == 0) {
+			superinterfaces[id] = parent < 0 ? NONE : superinterfaces[parent];
+			sortedSuperinterfaces[id] = parent < 0 ? NONE : sortedSuperinterfaces[parent];
+			return;
+		}
+
+		int[] direct = new int[cls.getInterfaceCount()];
+		int i = 0;
+		for (SootClass iface : cls.getInterfaces()) {
+			direct[i++] = classToId.get(iface);
+		}
+
+		IntList result = new IntList();
+		for (int iface : direct) {
+			result.addIfAbsent(iface);
+		}
+		for (int iface : direct) {
+			result.addAllIfAbsent(superinterfaces[iface]);
+		}
+		if (parent >= 0) {
+			result.addAllIfAbsent(superinterfaces[parent]);
+		}
+
+		superinterfaces[id] = result.toArray();
+		sortedSuperinterfaces[id] = result.toArray();
+		Arrays.sort(sortedSuperinterfaces[id]);
+	}
+
+	/**
+	 * Number the classes in the preorder of the superclass tree, and
+	 * calculate the size of the subtree of each class.
+	 */
+	private void numberSuperclassTree() {
+		int count = idToClass.size();
+		preorder = new int[count];
+		subtreeSize = new int[count];
+		preorderToId = new int[count];
+
+		// Children lists in the compressed form, ordered by ID
+		int[] childStart = new int[count + 1];
+		for (int id = 0; id < count; id++) {
+			if (superclass[id] >= 0) {
+				childStart[superclass[id] + 1]++;
+			}
+		}
+		for (int id = 0; id < count; id++) {
+			childStart[id + 1] += childStart[id];
+		}
+		int[] children = new int[count];
+		int[] next = Arrays.copyOf(childStart, count);
+		for (int id = 0; id < count; id++) {
+			if (superclass[id] >= 0) {
+				children[next[superclass[id]]++] = id;
+			}
+		}
+
+		// Iterative depth-first traversal from each root
+		int number = 0;
+		int[] stack = new int[count];
+		for (int root = 0; root < count; root++) {
+			if (superclass[root] >= 0) {
+				continue;
+			}
+
+			int top = 0;
+			stack[top++] = root;
+			while (top > 0) {
+				int id = stack[--top];
+				preorder[id] = number;
+				preorderToId[number++] = id;
+
+				// Push the children in reverse, so they are visited in order
+				for (int c = childStart[id + 1] - 1; c >= childStart[id]; c--) {
+					stack[top++] = children[c];
+				}
+			}
+		}
+
+		// Subclasses have higher IDs, so their subtree sizes are known first
+		Arrays.fill(subtreeSize, 1);
+		for (int id = count - 1; id >= 0; id--) {
+			if (superclass[id] >= 0) {
+				subtreeSize[superclass[id]] += subtreeSize[id];
+			}
+		}
+	}
+
+	/**
+	 * Map every method subsignature to the classes that declare it. The IDs
+	 * are visited in increasing order, so every list of declaring classes ends
+	 * up sorted.
+	 */
+	private void indexMethodDeclarations() {
+		Map<NumberedString, IntList> declarers = new HashMap<NumberedString, IntList>();
+		for (int id = 0; id < idToClass.size(); id++) {
+			for (SootMethod method : idToClass.get(id).getMethods()) {
+				declarers.computeIfAbsent(method.getNumberedSubSignature(), s -> new IntList()).add(id);
+			}
+		}
+
+		subSignatureToDeclarers = new HashMap<NumberedString, int[]>(2 * declarers.size());
+		declarers.forEach((subSignature, ids) -> subSignatureToDeclarers.put(subSignature, ids.toArray()));
+	}
+
+	/**
+	 * A fork/join task that calculates the superinterfaces of a range of
+	 * classes, splitting the range in halves until it is small enough.
+	 * 
+	 * @author karim
+	 * 
+	 */
+	private class SuperinterfacesTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 256;
+
+		private int[] ids;
+		private int from;
+		private int to;
+
+		private SuperinterfacesTask(int[] ids, int from, int to) {
+			this.ids = ids;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					calculateSuperinterfaces(ids[i]);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SuperinterfacesTask(ids, from, middle), new SuperinterfacesTask(ids, middle, to));
+			}
+		}
+	}
+
+	/**
+	 * A growable list of ints.
+	 * 
+	 * @author karim
+	 * 
+	 */
+	private static class IntList {
+		private int[] values = new int[8];
+		private int size = 0;
+
+		private void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			values[size++] = value;
+		}
+
+		private void addIfAbsent(int value) {
+			for (int i = 0; i < size; i++) {
+				if (values[i] == value) {
+					return;
+				}
+			}
+			add(value);
+		}
+
+		private void addAllIfAbsent(int[] other) {
+			for (int value : other) {
+				addIfAbsent(value);
+			}
+		}
+
+		private int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+}
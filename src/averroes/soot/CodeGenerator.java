@@ -11,11 +11,7 @@
 package averroes.soot;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -31,6 +27,7 @@ import soot.ArrayType;
 import soot.Body;
 import soot.Local;
 import soot.Modifier;
+import soot.PrimType;
 import soot.RefLikeType;
 import soot.RefType;
 import soot.SootClass;
@@ -39,14 +36,21 @@ import soot.SootMethod;
 import soot.SootMethodRef;
 import soot.SourceLocator;
 import soot.Type;
+import soot.Unit;
 import soot.Value;
 import soot.VoidType;
+import soot.jimple.AssignStmt;
+import soot.jimple.CastExpr;
+import soot.jimple.IdentityStmt;
 import soot.jimple.IntConstant;
 import soot.jimple.InvokeExpr;
 import soot.jimple.Jimple;
 import soot.jimple.JimpleBody;
+import soot.jimple.ParameterRef;
+import soot.jimple.ReturnStmt;
+import soot.jimple.StaticInvokeExpr;
+import soot.jimple.ThisRef;
 import soot.options.Options;
-import soot.util.JasminOutputStream;
 import averroes.android.AndroidEntryPointConstants;
 import averroes.android.SetupAndroid;
 import averroes.options.AverroesOptions;
@@ -74,6 +78,9 @@ public class CodeGenerator {
 	private SootClass averroesAbstractLibraryClass = null;
 	private AverroesJimpleBody doItAllBody = null;
 
+	private Map<String, BodyTemplate> bodyTemplates;
+	private Map<Type, SootMethod> lptHelpers;
+
 	/**
 	 * Get the CodeGenerator singleton.
 	 * 
@@ -89,6 +96,8 @@ public class CodeGenerator {
 	private CodeGenerator() {
 		libraryInterfaceToConcreteImplementationClass = new HashMap<SootClass, SootClass>();
 		abstractLibraryClassToConcreteImplementationClass = new HashMap<SootClass, SootClass>();
+		bodyTemplates = new HashMap<String, BodyTemplate>();
+		lptHelpers = new HashMap<Type, SootMethod>();
 
 		generatedMethodCount = 0;
 		generatedClassCount = 0;
@@ -271,32 +280,61 @@ public class CodeGenerator {
 
 			writeLibraryClassFile(libraryClass);
 		}
+
+		// The abstract library class is written again, now that it has all
+		// the LPT helper methods
+		if (AverroesOptions.isCompactStubs()) {
+			writeLibraryClassFile(averroesAbstractLibraryClass);
+		}
 	}
 
 	/**
-	 * Write the class file for the given library class.
+	 * Get the LPT helper method for the given type, creating it if needed. The
+	 * helper is a static method of the Averroes abstract library class that
+	 * loads the LPT and returns it cast to the given type. In compact mode,
+	 * the placeholder library methods call the helpers instead of repeating
+	 * these statements. A call graph analysis still sees the same points-to
+	 * sets: the value returned by a helper is the LPT cast to its type, just
+	 * like the value of the inlined cast.
 	 * 
-	 * @param cls
-	 * @throws IOException
+	 * @param type
+	 * @return
 	 */
-	public static void writeLibraryClassFile(SootClass cls) throws IOException {
-		Options.v().set_output_dir(Paths.libraryClassesOutputDirectory().getPath());
-
-		File file = new File(SourceLocator.v().getFileNameFor(cls, Options.output_format_class));
-		file.getParentFile().mkdirs();
+	public SootMethod getLptHelper(Type type) {
+		SootMethod result = lptHelpers.get(type);
+
+		if (result == null) {
+			// The name of the helper is derived from the type, e.g.,
+			// castLptTo$java_lang_String$Array for java.lang.String[]
+			String baseName = "castLptTo$" + type.toString().replace('.', '_').replace("[]", "$Array");
+			String name = baseName;
+			for (int i = 1; averroesAbstractLibraryClass.declaresMethodByName(name); i++) {
+				name = baseName + "$" + i;
+			}
 
-		OutputStream streamOut = new JasminOutputStream(new FileOutputStream(file));
-		PrintWriter writerOut = new PrintWriter(new OutputStreamWriter(streamOut));
+			result = new SootMethod(name, Collections.<Type> emptyList(), type, Modifier.PUBLIC | Modifier.STATIC);
+			averroesAbstractLibraryClass.addMethod(result);
 
-		if (cls.containsBafBody()) {
-			new soot.baf.JasminClass(cls).print(writerOut);
-		} else {
+			// The helper itself casts the LPT, of course
+			AverroesJimpleBody body = new AverroesJimpleBody(result);
+			body.insertReturnStmt();
+			body.validate();
 
-			new soot.jimple.JasminClass(cls).print(writerOut);
+			lptHelpers.put(type, result);
 		}
 
-		writerOut.flush();
-		streamOut.close();
+		return result;
+	}
+
+	/**
+	 * Write the class file for the given library class.
+	 * 
+	 * @param cls
+	 * @throws IOException
+	 */
+	public static void writeLibraryClassFile(SootClass cls) throws IOException {
+		Options.v().set_output_dir(Paths.libraryClassesOutputDirectory().getPath());
+		LibraryClassWriter.write(cls, new File(SourceLocator.v().getFileNameFor(cls, Options.output_format_class)));
 	}
 
 	/**
@@ -317,8 +355,15 @@ public class CodeGenerator {
 					+ ". We should never enter createJimpleBody() for the Averroes library classes.");
 		}
 
+		// The body of any other library method only depends on its shape, so
+		// it is copied from the body of the first method with the same shape
+		String shape = getBodyShape(method);
+		if (shape != null && bodyTemplates.containsKey(shape)) {
+			return createJimpleBodyFromTemplate(method, bodyTemplates.get(shape));
+		}
+
 		// Create a basic Jimple body
-		AverroesJimpleBody body = new AverroesJimpleBody(method);
+		AverroesJimpleBody body = new AverroesJimpleBody(method, AverroesOptions.isCompactStubs());
 
 		// Insert the appropriate method body
 		if (body.isConstructor()) {
@@ -335,12 +380,125 @@ public class CodeGenerator {
 		// Validate the Jimple body
 		body.validate();
 
+		// Keep a copy of the body as the template for its shape
+		if (shape != null) {
+			bodyTemplates.put(shape, new BodyTemplate(method, body.getJimpleBody()));
+		}
+
 		// TODO
 		// System.out.println(body.getJimpleBody());
 
 		return (JimpleBody) method.getActiveBody();
 	}
 
+	/**
+	 * Get the shape of the Jimple body for the given library method: whether
+	 * the method is static, which of its parameters are references, and the
+	 * category of its return type. Two methods with the same shape get the
+	 * same body, up to the types of the parameters, the this parameter, and
+	 * the cast of the LPT to the return type (or the call to the LPT helper
+	 * for the return type in compact mode). Constructors and static
+	 * initializers also depend on the fields of their class, so they have no
+	 * shape and null is returned.
+	 * 
+	 * @param method
+	 * @return
+	 */
+	private static String getBodyShape(SootMethod method) {
+		if (method.getName().equals(SootMethod.constructorName)
+				|| method.getName().equals(SootMethod.staticInitializerName)) {
+			return null;
+		}
+
+		StringBuilder shape = new StringBuilder(method.isStatic() ? "static (" : "(");
+		for (int i = 0; i < method.getParameterCount(); i++) {
+			shape.append(method.getParameterType(i) instanceof RefLikeType ? 'L' : 'P');
+		}
+		shape.append(')');
+
+		// Primitive types are grouped by the constant they return
+		Type returnType = method.getReturnType();
+		if (returnType instanceof VoidType) {
+			shape.append('V');
+		} else if (returnType instanceof RefLikeType) {
+			shape.append('L');
+		} else {
+			shape.append(AverroesJimpleBody.getPrimValue((PrimType) returnType).getType());
+		}
+
+		return shape.toString();
+	}
+
+	/**
+	 * Create the Jimple body for the given library method by copying the given
+	 * template, then retargeting the copy to the types of the method: the this
+	 * parameter, the parameters, and the unit that computes the return value.
+	 * Any other unit does not depend on the types of the method, so it is
+	 * copied as is. The template is already validated, and retargeting keeps
+	 * the copy valid, so the copy is not validated again.
+	 * 
+	 * @param method
+	 * @param template
+	 * @return
+	 */
+	private JimpleBody createJimpleBodyFromTemplate(SootMethod method, BodyTemplate template) {
+		JimpleBody body = Jimple.v().newBody(method);
+		body.importBodyContentsFrom(template.body);
+		method.setActiveBody(body);
+
+		int index = 0;
+		for (Unit unit : body.getUnits()) {
+			if (unit instanceof IdentityStmt) {
+				IdentityStmt stmt = (IdentityStmt) unit;
+				Local local = (Local) stmt.getLeftOp();
+
+				if (stmt.getRightOp() instanceof ThisRef) {
+					RefType type = method.getDeclaringClass().getType();
+					local.setType(type);
+					stmt.setRightOp(Jimple.v().newThisRef(type));
+				} else if (stmt.getRightOp() instanceof ParameterRef) {
+					int parameterIndex = ((ParameterRef) stmt.getRightOp()).getIndex();
+					Type type = method.getParameterType(parameterIndex);
+					local.setType(type);
+					stmt.setRightOp(Jimple.v().newParameterRef(type, parameterIndex));
+				}
+			} else if (index == template.returnValueIndex) {
+				retargetReturnValue(body, unit, method.getReturnType());
+			}
+			index++;
+		}
+
+		return body;
+	}
+
+	/**
+	 * Retarget the given unit of the given body, which casts the LPT to the
+	 * return type of the template (or calls the LPT helper for it in compact
+	 * mode), to the given return type.
+	 * 
+	 * @param body
+	 * @param unit
+	 * @param returnType
+	 */
+	private void retargetReturnValue(JimpleBody body, Unit unit, Type returnType) {
+		Value returned = ((ReturnStmt) body.getUnits().getLast()).getOp();
+		if (!(unit instanceof AssignStmt) || ((AssignStmt) unit).getLeftOp() != returned) {
+			throw new RuntimeException("The template for " + body.getMethod().getSignature()
+					+ " does not compute the return value at " + unit);
+		}
+
+		AssignStmt stmt = (AssignStmt) unit;
+		((Local) returned).setType(returnType);
+		if (stmt.getRightOp() instanceof CastExpr) {
+			((CastExpr) stmt.getRightOp()).setCastType(returnType);
+		} else if (stmt.getRightOp() instanceof StaticInvokeExpr) {
+			((StaticInvokeExpr) stmt.getRightOp()).setMethodRef(getLptHelper(returnType).makeRef());
+		} else {
+			throw new RuntimeException("Cannot retarget the return value of " + body.getMethod().getSignature()
+					+ " computed by " + unit);
+		}
+	}
+
 	/**
 	 * Generate the name of any class that Averroes creates.
 	 * 
@@ -773,15 +931,29 @@ public class CodeGenerator {
 		return result;
 	}
 
+	/**
+	 * Get a set of the concrete implementation classes generated by this code
+	 * generator.
+	 * 
+	 * @return
+	 */
+	public Set<SootClass> getGeneratedLibraryClasses() {
+		Set<SootClass> result = new HashSet<SootClass>();
+		result.addAll(abstractLibraryClassToConcreteImplementationClass.values());
+		result.addAll(libraryInterfaceToConcreteImplementationClass.values());
+		return result;
+	}
+
 	/**
 	 * Get a set of all the library classes. This include the original library
 	 * classes, in addition to the concrete implementation classes generated by this
-	 * code generator.
+	 * code generator. The original library classes keep their hierarchy order
+	 * (i.e., superclasses first).
 	 * 
 	 * @return
 	 */
-	private Set<SootClass> getLibraryClasses() {
-		Set<SootClass> result = new HashSet<SootClass>();
+	public Set<SootClass> getLibraryClasses() {
+		Set<SootClass> result = new LinkedHashSet<SootClass>();
 		result.addAll(Hierarchy.v().getLibraryClasses());
 		result.addAll(abstractLibraryClassToConcreteImplementationClass.values());
 		result.addAll(libraryInterfaceToConcreteImplementationClass.values());
@@ -796,7 +968,7 @@ public class CodeGenerator {
 
 	private Set<SootClass> getNonPhantomLibraryClasses() {
 
-		Set<SootClass> result = new HashSet<SootClass>();
+		Set<SootClass> result = new LinkedHashSet<SootClass>();
 		result.addAll(getLibraryClasses());
 
 		// Removing all phantom classes.
@@ -1076,4 +1248,47 @@ public class CodeGenerator {
 		}
 	}
 
+	/**
+	 * A copy of the Jimple body of a library method that is the template for
+	 * all the library methods of the same shape. The index of the unit that
+	 * computes the return value is recorded when the template is built, so
+	 * only that unit is retargeted in the copies.
+	 * 
+	 * @author karim
+	 * 
+	 */
+	private static class BodyTemplate {
+		private JimpleBody body;
+		private int returnValueIndex = -1;
+
+		/**
+		 * Build the template from the given body of the given method.
+		 * 
+		 * @param method
+		 * @param source
+		 */
+		private BodyTemplate(SootMethod method, JimpleBody source) {
+			body = Jimple.v().newBody(method);
+			body.importBodyContentsFrom(source);
+
+			// A method that returns a reference returns the LPT cast to its
+			// return type, primitive constants do not depend on the method
+			Unit last = body.getUnits().getLast();
+			if (last instanceof ReturnStmt && ((ReturnStmt) last).getOp() instanceof Local) {
+				Value returned = ((ReturnStmt) last).getOp();
+				int index = 0;
+				for (Unit unit : body.getUnits()) {
+					if (unit instanceof AssignStmt && ((AssignStmt) unit).getLeftOp() == returned) {
+						returnValueIndex = index;
+					}
+					index++;
+				}
+
+				if (returnValueIndex < 0) {
+					throw new RuntimeException("Cannot find the return value of " + method.getSignature());
+				}
+			}
+		}
+	}
+
 }
@@ -12,6 +12,7 @@ package averroes.soot;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -20,6 +21,13 @@ import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 
 import soot.ArrayType;
 import soot.Modifier;
@@ -32,6 +40,7 @@ import soot.Type;
 import soot.VoidType;
 import soot.coffi.AverroesApplicationConstantPool;
 import soot.tagkit.Tag;
+import soot.util.NumberedString;
 import averroes.android.AndroidEntryPointConstants;
 import averroes.options.AverroesOptions;
 
@@ -49,19 +58,7 @@ public class Hierarchy {
 
 	private SootBasicClassesDatabase basicClassesDatabase;
 
-	private HashMap<SootClass, LinkedHashSet<SootClass>> classToSuperclasses;
-	private HashMap<SootClass, SootClass> classToDirectSuperclass;
-	private HashMap<SootClass, LinkedHashSet<SootClass>> classToSubclasses;
-	private HashMap<SootClass, LinkedHashSet<SootClass>> classToConcreteSubclasses;
-	private HashMap<SootClass, LinkedHashSet<SootClass>> classToLibraryConcreteSubclasses;
-	private HashMap<SootClass, LinkedHashSet<SootClass>> classToDirectSubclasses;
-
-	private HashMap<SootClass, LinkedHashSet<SootClass>> classToSuperinterfaces;
-	private HashMap<SootClass, LinkedHashSet<SootClass>> classToDirectSuperinterfaces;
-	private HashMap<SootClass, LinkedHashSet<SootClass>> interfaceToDirectImplementers;
-	private HashMap<SootClass, LinkedHashSet<SootClass>> interfaceToImplementers;
-	private HashMap<SootClass, LinkedHashSet<SootClass>> interfaceToConcreteImplementers;
-	private HashMap<SootClass, LinkedHashSet<SootClass>> interfaceToLibraryConcreteImplementers;
+	private ClassHierarchyIndex index;
 
 	private HashMap<SootMethod, SootMethod> methodToTopmostSuperMethod;
 	private HashMap<SootMethod, SootMethod> methodToTopmostSuperclassesSuperMethod;
@@ -83,8 +80,8 @@ public class Hierarchy {
 	private HashMap<String, SootClass> nameToApplicationClass;
 	private HashMap<String, SootClass> nameToLibraryClass;
 
-	private SortedSet<SootClass> applicationClasses;
-	private SortedSet<SootClass> libraryClasses;
+	private List<SootClass> applicationClasses;
+	private List<SootClass> libraryClasses;
 
 	private Set<SootClass> abstractLibraryClasses;
 	private Set<SootClass> concreteLibraryClasses;
@@ -129,20 +126,6 @@ public class Hierarchy {
 	 * 
 	 */
 	private Hierarchy() {
-		classToSuperclasses = new HashMap<SootClass, LinkedHashSet<SootClass>>();
-		classToDirectSuperclass = new HashMap<SootClass, SootClass>();
-		classToSubclasses = new HashMap<SootClass, LinkedHashSet<SootClass>>();
-		classToConcreteSubclasses = new HashMap<SootClass, LinkedHashSet<SootClass>>();
-		classToLibraryConcreteSubclasses = new HashMap<SootClass, LinkedHashSet<SootClass>>();
-		classToDirectSubclasses = new HashMap<SootClass, LinkedHashSet<SootClass>>();
-
-		classToSuperinterfaces = new HashMap<SootClass, LinkedHashSet<SootClass>>();
-		classToDirectSuperinterfaces = new HashMap<SootClass, LinkedHashSet<SootClass>>();
-		interfaceToDirectImplementers = new HashMap<SootClass, LinkedHashSet<SootClass>>();
-		interfaceToImplementers = new HashMap<SootClass, LinkedHashSet<SootClass>>();
-		interfaceToConcreteImplementers = new HashMap<SootClass, LinkedHashSet<SootClass>>();
-		interfaceToLibraryConcreteImplementers = new HashMap<SootClass, LinkedHashSet<SootClass>>();
-
 		methodToTopmostSuperMethod = new HashMap<SootMethod, SootMethod>();
 		methodToTopmostSuperclassesSuperMethod = new HashMap<SootMethod, SootMethod>();
 		methodToTopmostSuperinterfacesSuperMethod = new HashMap<SootMethod, SootMethod>();
@@ -163,8 +146,8 @@ public class Hierarchy {
 		nameToApplicationClass = new HashMap<String, SootClass>();
 		nameToLibraryClass = new HashMap<String, SootClass>();
 
-		applicationClasses = new TreeSet<SootClass>(new SootClassHierarchyComparer(this));
-		libraryClasses = new TreeSet<SootClass>(new SootClassHierarchyComparer(this));
+		applicationClasses = new ArrayList<SootClass>();
+		libraryClasses = new ArrayList<SootClass>();
 
 		abstractLibraryClasses = new HashSet<SootClass>();
 		concreteLibraryClasses = new HashSet<SootClass>();
@@ -314,11 +297,86 @@ public class Hierarchy {
 	 * one. They will be used by Averroes to create objects in the doItAll method.
 	 */
 	public void cleanupLibraryClasses() {
+		if (AverroesOptions.isParallel()) {
+			cleanupLibraryClassesInParallel();
+		} else {
+			for (SootClass libraryClass : libraryClasses) {
+				addDefaultConstructorToLibraryClass(libraryClass);
+				cleanupLibraryClassTags(libraryClass);
+				cleanupMethodsInLibraryClass(libraryClass, this::isLibraryMethodRemovable);
+				cleanupFieldsInLibraryClass(libraryClass, this::isLibraryFieldRemovable);
+			}
+		}
+	}
+
+	/**
+	 * Clean up the library classes in two phases. First, a pool of worker
+	 * threads decides which library methods and fields to remove, while the
+	 * hierarchy is not modified. Then, the calling thread removes them and
+	 * cleans up the rest of the library classes in the same order as a
+	 * sequential run.
+	 * 
+	 * In a sequential run, the supermethods of a library method are checked
+	 * after its supertypes have been cleaned up. The methods of a class are
+	 * therefore only decided once the classes at all the levels above it are
+	 * done, and the decisions of those levels are taken into account (see
+	 * {@link #isLibraryMethodRemovable(SootMethod, Set)}). The classes at the
+	 * same level never depend on each other, so they are decided in parallel.
+	 * This way, the same methods and fields get removed as in a sequential
+	 * run.
+	 */
+	private void cleanupLibraryClassesInParallel() {
+		// The default constructors are never removed, and they don't affect
+		// the decisions for any other method
 		for (SootClass libraryClass : libraryClasses) {
 			addDefaultConstructorToLibraryClass(libraryClass);
+		}
+
+		List<List<SootClass>> levels = new ArrayList<List<SootClass>>();
+		for (int level = 0; level < index.getLevelCount(); level++) {
+			levels.add(new ArrayList<SootClass>());
+		}
+		for (SootClass libraryClass : libraryClasses) {
+			levels.get(index.getLevel(index.getId(libraryClass))).add(libraryClass);
+		}
+
+		Set<SootMethod> removedMethods = ConcurrentHashMap.newKeySet();
+		Set<SootField> removedFields = ConcurrentHashMap.newKeySet();
+		ExecutorService pool = Executors.newFixedThreadPool(AverroesOptions.getThreadCount());
+
+		try {
+			for (List<SootClass> level : levels) {
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+				for (SootClass libraryClass : level) {
+					tasks.add(() -> {
+						for (SootMethod method : libraryClass.getMethods()) {
+							if (isLibraryMethodRemovable(method, removedMethods)) {
+								removedMethods.add(method);
+							}
+						}
+						for (SootField field : libraryClass.getFields()) {
+							if (isLibraryFieldRemovable(field)) {
+								removedFields.add(field);
+							}
+						}
+						return null;
+					});
+				}
+
+				for (Future<Void> task : pool.invokeAll(tasks)) {
+					task.get();
+				}
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Failed to clean up the library classes.", e);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		for (SootClass libraryClass : libraryClasses) {
 			cleanupLibraryClassTags(libraryClass);
-			cleanupMethodsInLibraryClass(libraryClass);
-			cleanupFieldsInLibraryClass(libraryClass);
+			cleanupMethodsInLibraryClass(libraryClass, removedMethods::contains);
+			cleanupFieldsInLibraryClass(libraryClass, removedFields::contains);
 		}
 	}
 
@@ -332,20 +390,22 @@ public class Hierarchy {
 	}
 
 	/**
-	 * Get all the application classes.
+	 * Get all the application classes. Every class comes after its superclass
+	 * and its superinterfaces.
 	 * 
 	 * @return
 	 */
-	public SortedSet<SootClass> getApplicationClasses() {
+	public List<SootClass> getApplicationClasses() {
 		return applicationClasses;
 	}
 
 	/**
-	 * Get all the library classes.
+	 * Get all the library classes. Every class comes after its superclass and
+	 * its superinterfaces.
 	 * 
 	 * @return
 	 */
-	public SortedSet<SootClass> getLibraryClasses() {
+	public List<SootClass> getLibraryClasses() {
 		return libraryClasses;
 	}
 
@@ -820,8 +880,8 @@ public class Hierarchy {
 	}
 
 	/**
-	 * Find all the superclasses of the given class recursively. This also
-	 * calculates the subclasses relation.
+	 * Find all the superclasses of the given class recursively, starting with
+	 * its direct superclass.
 	 * 
 	 * @param cls
 	 * @return
@@ -829,38 +889,21 @@ public class Hierarchy {
 	public LinkedHashSet<SootClass> getSuperclassesOf(SootClass cls) {
 		checkLevel(cls);
 
-		if (!classToSuperclasses.containsKey(cls)) {
-			LinkedHashSet<SootClass> result = new LinkedHashSet<SootClass>();
-
-			if (cls.hasSuperclass()) {
-				// Direct superclass
-				result.add(getDirectSuperclassOf(cls));
-
-				// Direct subclasses
-				getDirectSubclassesOf(cls.getSuperclass()).add(cls);
-
-				// Superclasses of direct superclass
-				result.addAll(getSuperclassesOf(cls.getSuperclass()));
-			}
-			classToSuperclasses.put(cls, result);
-
-			// Calculate the subclasses relation
-			for (SootClass superClass : result) {
-				getSubclassesOf(superClass).add(cls);
-
-				// Calculate the concrete subclasses relation if cls is
-				// concrete.
-				if (cls.isConcrete()) {
-					getConcreteSubclassesOf(superClass).add(cls);
+		LinkedHashSet<SootClass> result = new LinkedHashSet<SootClass>();
+		int id = index.getId(cls);
 
-					if (isLibraryClass(cls)) {
-						getLibraryConcreteSubclassesOf(superClass).add(cls);
-					}
-				}
+		if (id >= 0) {
+			for (int sup = index.getSuperclass(id); sup >= 0; sup = index.getSuperclass(sup)) {
+				result.add(index.getClass(sup));
 			}
+		} else if (cls.hasSuperclass()) {
+			// A class that was created after the hierarchy (e.g., a generated
+			// class)
+			result.add(cls.getSuperclass());
+			result.addAll(getSuperclassesOf(cls.getSuperclass()));
 		}
 
-		return classToSuperclasses.get(cls);
+		return result;
 	}
 
 	/**
@@ -872,11 +915,15 @@ public class Hierarchy {
 	public LinkedHashSet<SootClass> getSubclassesOf(SootClass cls) {
 		checkLevel(cls);
 
-		if (!classToSubclasses.containsKey(cls)) {
-			classToSubclasses.put(cls, new LinkedHashSet<SootClass>());
+		LinkedHashSet<SootClass> result = new LinkedHashSet<SootClass>();
+		int id = index.getId(cls);
+		if (id >= 0) {
+			for (int sub : index.getSubclasses(id)) {
+				result.add(index.getClass(sub));
+			}
 		}
 
-		return classToSubclasses.get(cls);
+		return result;
 	}
 
 	/**
@@ -886,13 +933,9 @@ public class Hierarchy {
 	 * @return
 	 */
 	public LinkedHashSet<SootClass> getConcreteSubclassesOf(SootClass cls) {
-		checkLevel(cls);
-
-		if (!classToConcreteSubclasses.containsKey(cls)) {
-			classToConcreteSubclasses.put(cls, new LinkedHashSet<SootClass>());
-		}
-
-		return classToConcreteSubclasses.get(cls);
+		LinkedHashSet<SootClass> result = getSubclassesOf(cls);
+		result.removeIf(sub -> !sub.isConcrete());
+		return result;
 	}
 
 	/**
@@ -902,13 +945,9 @@ public class Hierarchy {
 	 * @return
 	 */
 	public LinkedHashSet<SootClass> getLibraryConcreteSubclassesOf(SootClass cls) {
-		checkLevel(cls);
-
-		if (!classToLibraryConcreteSubclasses.containsKey(cls)) {
-			classToLibraryConcreteSubclasses.put(cls, new LinkedHashSet<SootClass>());
-		}
-
-		return classToLibraryConcreteSubclasses.get(cls);
+		LinkedHashSet<SootClass> result = getConcreteSubclassesOf(cls);
+		result.removeIf(sub -> !isLibraryClass(sub));
+		return result;
 	}
 
 	/**
@@ -920,11 +959,12 @@ public class Hierarchy {
 	public SootClass getDirectSuperclassOf(SootClass cls) {
 		checkLevel(cls);
 
-		if (!classToDirectSuperclass.containsKey(cls)) {
-			classToDirectSuperclass.put(cls, cls.getSuperclass());
+		int id = index.getId(cls);
+		if (id >= 0 && index.getSuperclass(id) >= 0) {
+			return index.getClass(index.getSuperclass(id));
 		}
 
-		return classToDirectSuperclass.get(cls);
+		return cls.getSuperclass();
 	}
 
 	/**
@@ -934,13 +974,10 @@ public class Hierarchy {
 	 * @return
 	 */
 	public LinkedHashSet<SootClass> getDirectSubclassesOf(SootClass cls) {
-		checkLevel(cls);
-
-		if (!classToDirectSubclasses.containsKey(cls)) {
-			classToDirectSubclasses.put(cls, new LinkedHashSet<SootClass>());
-		}
-
-		return classToDirectSubclasses.get(cls);
+		LinkedHashSet<SootClass> result = getSubclassesOf(cls);
+		int id = index.getId(cls);
+		result.removeIf(sub -> index.getSuperclass(index.getId(sub)) != id);
+		return result;
 	}
 
 	/**
@@ -951,6 +988,14 @@ public class Hierarchy {
 	 * @return
 	 */
 	public boolean isSubclassOf(SootClass possibleChild, SootClass cls) {
+		int child = index.getId(possibleChild);
+		int id = index.getId(cls);
+
+		if (child >= 0 && id >= 0) {
+			checkLevel(possibleChild);
+			return index.isSubclassOf(child, id);
+		}
+
 		return getSuperclassesOf(possibleChild).contains(cls);
 	}
 
@@ -962,7 +1007,7 @@ public class Hierarchy {
 	 * @return
 	 */
 	public boolean isConcreteSubclassOf(SootClass possibleChild, SootClass cls) {
-		return getConcreteSubclassesOf(cls).contains(possibleChild);
+		return possibleChild.isConcrete() && index.contains(possibleChild) && isSubclassOf(possibleChild, cls);
 	}
 
 	/**
@@ -973,7 +1018,7 @@ public class Hierarchy {
 	 * @return
 	 */
 	public boolean isLibraryConcreteSubclassOf(SootClass possibleChild, SootClass cls) {
-		return getLibraryConcreteSubclassesOf(cls).contains(possibleChild);
+		return isLibraryClass(possibleChild) && isConcreteSubclassOf(possibleChild, cls);
 	}
 
 	/**
@@ -984,11 +1029,13 @@ public class Hierarchy {
 	 * @return
 	 */
 	public boolean isSuperclassOf(SootClass possibleParent, SootClass cls) {
-		return getSuperclassesOf(cls).contains(possibleParent);
+		return isSubclassOf(cls, possibleParent);
 	}
 
 	/**
-	 * Find all the super interfaces of a given Soot class recursively.
+	 * Find all the super interfaces of a given Soot class recursively. The
+	 * direct superinterfaces come first, followed by their superinterfaces,
+	 * then the superinterfaces of the direct superclass.
 	 * 
 	 * @param cls
 	 * @return
@@ -996,45 +1043,26 @@ public class Hierarchy {
 	public LinkedHashSet<SootClass> getSuperinterfacesOf(SootClass cls) {
 		checkLevel(cls);
 
-		if (!classToSuperinterfaces.containsKey(cls)) {
-			LinkedHashSet<SootClass> result = new LinkedHashSet<SootClass>();
-
-			// Direct superinterfaces
-			result.addAll(getDirectSuperinterfacesOf(cls));
+		LinkedHashSet<SootClass> result = new LinkedHashSet<SootClass>();
+		int id = index.getId(cls);
 
-			// Direct implementers
-			for (SootClass iface : getDirectSuperinterfacesOf(cls)) {
-				getDirectImplementersOf(iface).add(cls);
+		if (id >= 0) {
+			for (int iface : index.getSuperinterfaces(id)) {
+				result.add(index.getClass(iface));
 			}
-
-			// Superinterface of a direct superinterface
+		} else {
+			// A class that was created after the hierarchy (e.g., a generated
+			// class)
+			result.addAll(getDirectSuperinterfacesOf(cls));
 			for (SootClass iface : getDirectSuperinterfacesOf(cls)) {
 				result.addAll(getSuperinterfacesOf(iface));
 			}
-
-			// Superinterface of the direct superclass
 			if (cls.hasSuperclass()) {
 				result.addAll(getSuperinterfacesOf(cls.getSuperclass()));
 			}
-			classToSuperinterfaces.put(cls, result);
-
-			// Calculate the implementersOf relation
-			for (SootClass iface : result) {
-				getImplementersOf(iface).add(cls);
-
-				// Calculate the concrete implementersOf relation if cls is
-				// concrete
-				if (cls.isConcrete()) {
-					getConcreteImplementersOf(iface).add(cls);
-
-					if (isLibraryClass(cls)) {
-						getLibraryConcreteImplementersOf(iface).add(cls);
-					}
-				}
-			}
 		}
 
-		return classToSuperinterfaces.get(cls);
+		return result;
 	}
 
 	/**
@@ -1058,13 +1086,7 @@ public class Hierarchy {
 	 */
 	public LinkedHashSet<SootClass> getDirectSuperinterfacesOf(SootClass cls) {
 		checkLevel(cls);
-
-		if (!classToDirectSuperinterfaces.containsKey(cls)) {
-			LinkedHashSet<SootClass> ifaces = new LinkedHashSet<SootClass>(cls.getInterfaces());
-			classToDirectSuperinterfaces.put(cls, ifaces);
-		}
-
-		return classToDirectSuperinterfaces.get(cls);
+		return new LinkedHashSet<SootClass>(cls.getInterfaces());
 	}
 
 	/**
@@ -1074,13 +1096,9 @@ public class Hierarchy {
 	 * @return
 	 */
 	public LinkedHashSet<SootClass> getDirectImplementersOf(SootClass iface) {
-		checkLevel(iface);
-
-		if (!interfaceToDirectImplementers.containsKey(iface)) {
-			interfaceToDirectImplementers.put(iface, new LinkedHashSet<SootClass>());
-		}
-
-		return interfaceToDirectImplementers.get(iface);
+		LinkedHashSet<SootClass> result = getImplementersOf(iface);
+		result.removeIf(cls -> !cls.getInterfaces().contains(iface));
+		return result;
 	}
 
 	/**
@@ -1092,11 +1110,18 @@ public class Hierarchy {
 	public LinkedHashSet<SootClass> getImplementersOf(SootClass iface) {
 		checkLevel(iface);
 
-		if (!interfaceToImplementers.containsKey(iface)) {
-			interfaceToImplementers.put(iface, new LinkedHashSet<SootClass>());
+		LinkedHashSet<SootClass> result = new LinkedHashSet<SootClass>();
+		int id = index.getId(iface);
+		if (id >= 0) {
+			// Implementers always have higher IDs than their superinterfaces
+			for (int cls = id + 1; cls < index.size(); cls++) {
+				if (index.isSubinterfaceOf(cls, id)) {
+					result.add(index.getClass(cls));
+				}
+			}
 		}
 
-		return interfaceToImplementers.get(iface);
+		return result;
 	}
 
 	/**
@@ -1106,13 +1131,9 @@ public class Hierarchy {
 	 * @return
 	 */
 	public LinkedHashSet<SootClass> getConcreteImplementersOf(SootClass iface) {
-		checkLevel(iface);
-
-		if (!interfaceToConcreteImplementers.containsKey(iface)) {
-			interfaceToConcreteImplementers.put(iface, new LinkedHashSet<SootClass>());
-		}
-
-		return interfaceToConcreteImplementers.get(iface);
+		LinkedHashSet<SootClass> result = getImplementersOf(iface);
+		result.removeIf(cls -> !cls.isConcrete());
+		return result;
 	}
 
 	/**
@@ -1122,13 +1143,9 @@ public class Hierarchy {
 	 * @return
 	 */
 	public LinkedHashSet<SootClass> getLibraryConcreteImplementersOf(SootClass iface) {
-		checkLevel(iface);
-
-		if (!interfaceToLibraryConcreteImplementers.containsKey(iface)) {
-			interfaceToLibraryConcreteImplementers.put(iface, new LinkedHashSet<SootClass>());
-		}
-
-		return interfaceToLibraryConcreteImplementers.get(iface);
+		LinkedHashSet<SootClass> result = getConcreteImplementersOf(iface);
+		result.removeIf(cls -> !isLibraryClass(cls));
+		return result;
 	}
 
 	/**
@@ -1139,6 +1156,14 @@ public class Hierarchy {
 	 * @return
 	 */
 	public boolean isSubinterfaceOf(SootClass possibleChild, SootClass iface) {
+		int child = index.getId(possibleChild);
+		int id = index.getId(iface);
+
+		if (child >= 0 && id >= 0) {
+			checkLevel(possibleChild);
+			return index.isSubinterfaceOf(child, id);
+		}
+
 		return getSuperinterfacesOf(possibleChild).contains(iface);
 	}
 
@@ -1150,7 +1175,7 @@ public class Hierarchy {
 	 * @return
 	 */
 	public boolean isSuperinterfaceOf(SootClass possibleParent, SootClass cls) {
-		return getSuperinterfacesOf(cls).contains(possibleParent);
+		return isSubinterfaceOf(cls, possibleParent);
 	}
 
 	/**
@@ -1237,20 +1262,7 @@ public class Hierarchy {
 	public LinkedHashSet<SootMethod> getSuperclassesSuperMethodsOf(SootMethod method) {
 		if (canOverride(method)) {
 			if (!methodToSuperclassesSuperMethods.containsKey(method)) {
-				LinkedHashSet<SootMethod> result = new LinkedHashSet<SootMethod>();
-
-				for (SootClass superClass : getSuperclassesOf(method.getDeclaringClass())) {
-					if (superClass.declaresMethod(method.getNumberedSubSignature())) {
-						// NOTE: Private methods are ignored in calculating
-						// supermethods from superclasses
-						SootMethod m = superClass.getMethod(method.getNumberedSubSignature());
-						if (!m.isPrivate()) {
-							result.add(m);
-						}
-					}
-				}
-
-				methodToSuperclassesSuperMethods.put(method, result);
+				methodToSuperclassesSuperMethods.put(method, calculateSuperclassesSuperMethodsOf(method));
 			}
 
 			return methodToSuperclassesSuperMethods.get(method);
@@ -1279,15 +1291,7 @@ public class Hierarchy {
 	public Set<SootMethod> getSuperinterfacesSuperMethodsOf(SootMethod method) {
 		if (canOverride(method)) {
 			if (!methodToSuperinterfacesSuperMethods.containsKey(method)) {
-				Set<SootMethod> result = new HashSet<SootMethod>();
-
-				for (SootClass superInterface : getSuperinterfacesOf(method.getDeclaringClass())) {
-					if (superInterface.declaresMethod(method.getNumberedSubSignature())) {
-						result.add(superInterface.getMethod(method.getNumberedSubSignature()));
-					}
-				}
-
-				methodToSuperinterfacesSuperMethods.put(method, result);
+				methodToSuperinterfacesSuperMethods.put(method, calculateSuperinterfacesSuperMethodsOf(method));
 			}
 
 			return methodToSuperinterfacesSuperMethods.get(method);
@@ -1673,17 +1677,32 @@ public class Hierarchy {
 	 * Calculate the base relations (i.e., class hierarchy).
 	 */
 	private void calculateBaseRelations() {
-		for (SootClass cls : classes) {
-			getSuperclassesOf(cls);
-			getSuperinterfacesOf(cls);
+		index = new ClassHierarchyIndex(classes, AverroesOptions.getThreadCount());
+
+		// All the superclasses and superinterfaces must have been resolved
+		// too
+		for (int id = 0; id < index.size(); id++) {
+			checkLevel(index.getClass(id));
 		}
 	}
 
 	/**
-	 * Create the class trees for the application and the library.
+	 * Create the class trees for the application and the library. The classes
+	 * are sorted once in a topological order of the hierarchy, with ties broken
+	 * by class name.
 	 */
 	private void createClassTrees() {
+		BitSet inHierarchy = new BitSet(index.size());
 		for (SootClass cls : classes) {
+			inHierarchy.set(index.getId(cls));
+		}
+
+		for (int id : index.getTopologicalOrder()) {
+			if (!inHierarchy.get(id)) {
+				continue;
+			}
+
+			SootClass cls = index.getClass(id);
 			if (isApplicationClass(cls)) {
 				applicationClasses.add(cls);
 			} else {
@@ -1704,8 +1723,19 @@ public class Hierarchy {
 	 * Find all the unimplemented abstract library classes.
 	 */
 	private void findUnimplementedAbstractLibraryClasses() {
+		// Mark the superclasses of all the concrete library classes in one
+		// pass, instead of looking for the subclasses of each class
+		BitSet implemented = new BitSet(index.size());
+		for (SootClass cls : concreteLibraryClasses) {
+			int sup = index.getSuperclass(index.getId(cls));
+			while (sup >= 0 && !implemented.get(sup)) {
+				implemented.set(sup);
+				sup = index.getSuperclass(sup);
+			}
+		}
+
 		for (SootClass cls : abstractLibraryClasses) {
-			if (getLibraryConcreteSubclassesOf(cls).isEmpty()) {
+			if (!implemented.get(index.getId(cls))) {
 				abstractLibraryClassesNotImplementedInLibrary.add(cls);
 			}
 		}
@@ -1715,8 +1745,17 @@ public class Hierarchy {
 	 * Find all the unimplemented library interfaces.
 	 */
 	private void findUnimplementedLibraryInterfaces() {
+		// Mark the superinterfaces of all the concrete library classes in one
+		// pass, instead of looking for the implementers of each interface
+		BitSet implemented = new BitSet(index.size());
+		for (SootClass cls : concreteLibraryClasses) {
+			for (int iface : index.getSuperinterfaces(index.getId(cls))) {
+				implemented.set(iface);
+			}
+		}
+
 		for (SootClass iface : libraryInterfaces) {
-			if (getLibraryConcreteImplementersOf(iface).isEmpty()) {
+			if (!implemented.get(index.getId(iface))) {
 				libraryInterfacesNotImplementedInLibrary.add(iface);
 			}
 		}
@@ -1784,6 +1823,92 @@ public class Hierarchy {
 		return sorted.first(); // we are sure that the input set is not empty
 	}
 
+	/**
+	 * Calculate the set of methods overridden by the given method in its
+	 * superclasses, nearest superclass first. Unlike
+	 * {@link #getSuperclassesSuperMethodsOf(SootMethod)}, the result is not
+	 * cached, so this can be called from multiple threads.
+	 * 
+	 * @param method
+	 * @return
+	 */
+	private LinkedHashSet<SootMethod> calculateSuperclassesSuperMethodsOf(SootMethod method) {
+		LinkedHashSet<SootMethod> result = new LinkedHashSet<SootMethod>();
+		NumberedString subSignature = method.getNumberedSubSignature();
+
+		if (isDeclaredInSupertypes(method)) {
+			for (SootClass superClass : getSuperclassesOf(method.getDeclaringClass())) {
+				if (declaresMethod(superClass, subSignature)) {
+					// NOTE: Private methods are ignored in calculating
+					// supermethods from superclasses
+					SootMethod m = superClass.getMethod(subSignature);
+					if (!m.isPrivate()) {
+						result.add(m);
+					}
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Calculate the set of methods overridden by the given method in its
+	 * superinterfaces. Unlike
+	 * {@link #getSuperinterfacesSuperMethodsOf(SootMethod)}, the result is not
+	 * cached, so this can be called from multiple threads.
+	 * 
+	 * @param method
+	 * @return
+	 */
+	private Set<SootMethod> calculateSuperinterfacesSuperMethodsOf(SootMethod method) {
+		Set<SootMethod> result = new HashSet<SootMethod>();
+		NumberedString subSignature = method.getNumberedSubSignature();
+
+		if (isDeclaredInSupertypes(method)) {
+			for (SootClass superInterface : getSuperinterfacesOf(method.getDeclaringClass())) {
+				if (declaresMethod(superInterface, subSignature)) {
+					result.add(superInterface.getMethod(subSignature));
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Check if any class other than the declaring class of the given method
+	 * declares a method with the same subsignature. If not, the method cannot
+	 * have any supermethods. Classes that are not in the hierarchy index (e.g.,
+	 * classes generated by Averroes) are always checked the slow way.
+	 * 
+	 * @param method
+	 * @return
+	 */
+	private boolean isDeclaredInSupertypes(SootMethod method) {
+		int id = index.getId(method.getDeclaringClass());
+		int[] declarers = index.getDeclaringClasses(method.getNumberedSubSignature());
+		return id < 0 || declarers.length > 1 || (declarers.length == 1 && declarers[0] != id);
+	}
+
+	/**
+	 * Check if the given class declares a method with the given subsignature.
+	 * The hierarchy index answers most of these checks without looking up the
+	 * methods of the class. A hit is checked against the class itself, in case
+	 * the method has been removed since the index was built.
+	 * 
+	 * @param cls
+	 * @param subSignature
+	 * @return
+	 */
+	private boolean declaresMethod(SootClass cls, NumberedString subSignature) {
+		int id = index.getId(cls);
+		if (id >= 0 && !index.declaresMethod(id, subSignature)) {
+			return false;
+		}
+		return cls.declaresMethod(subSignature);
+	}
+
 	/**
 	 * Check if the given set of methods contain a method whose declaring class is a
 	 * superinterface of the given class.
@@ -1834,12 +1959,13 @@ public class Hierarchy {
 	 * by the application. Finally, change any native method to be non-native.
 	 * 
 	 * @param libraryClass
+	 * @param isRemovable
 	 */
-	private void cleanupMethodsInLibraryClass(SootClass libraryClass) {
+	private void cleanupMethodsInLibraryClass(SootClass libraryClass, Predicate<SootMethod> isRemovable) {
 		Set<SootMethod> toRemove = new HashSet<SootMethod>();
 
 		for (SootMethod method : libraryClass.getMethods()) {
-			if (isLibraryMethodRemovable(method)) {
+			if (isRemovable.test(method)) {
 				toRemove.add(method);
 			} else {
 				cleanupLibraryMethodExceptions(method);
@@ -1918,12 +2044,13 @@ public class Hierarchy {
 	 * is not referenced by the application.
 	 * 
 	 * @param libraryClass
+	 * @param isRemovable
 	 */
-	private void cleanupFieldsInLibraryClass(SootClass libraryClass) {
+	private void cleanupFieldsInLibraryClass(SootClass libraryClass, Predicate<SootField> isRemovable) {
 		Set<SootField> toRemove = new HashSet<SootField>();
 
 		for (SootField field : libraryClass.getFields()) {
-			if (isLibraryFieldRemovable(field)) {
+			if (isRemovable.test(field)) {
 				toRemove.add(field);
 			} else {
 				cleanupLibraryFieldTags(field);
@@ -1978,6 +2105,40 @@ public class Hierarchy {
 		}
 	}
 
+	/**
+	 * Check if it is safe to remove the given library method from its class,
+	 * given the methods that have been removed from its supertypes. This gives
+	 * the same result as {@link #isLibraryMethodRemovable(SootMethod)} after
+	 * the supertypes have been cleaned up, but it doesn't modify the hierarchy
+	 * or cache anything, so it can be called from multiple threads. A cleanup
+	 * removes some supermethods, and makes the native supermethods it keeps
+	 * concrete.
+	 * 
+	 * @param libraryMethod
+	 * @param removedMethods
+	 * @return
+	 */
+	private boolean isLibraryMethodRemovable(SootMethod libraryMethod, Set<SootMethod> removedMethods) {
+		if (libraryMethod.isPrivate() || isLibraryMethodReturnTypeRemovable(libraryMethod)
+				|| isLibraryMethodParameterTypesRemovable(libraryMethod)) {
+			return true;
+		} else if (isBasicLibraryMethod(libraryMethod) || isLibraryMethodReferencedInApplication(libraryMethod)) {
+			return false;
+		} else if (libraryMethod.isConcrete() && canOverride(libraryMethod)) {
+			Set<SootMethod> superMethods = new HashSet<SootMethod>();
+			superMethods.addAll(calculateSuperclassesSuperMethodsOf(libraryMethod));
+			superMethods.addAll(calculateSuperinterfacesSuperMethodsOf(libraryMethod));
+			superMethods.removeAll(removedMethods);
+
+			boolean hasConcreteSuperMethod = superMethods.stream().anyMatch(
+					m -> m.isConcrete() || (m.isNative() && isLibraryClass(m.getDeclaringClass())));
+			boolean hasAbstractSuperMethod = superMethods.stream().anyMatch(m -> m.isAbstract());
+			return hasConcreteSuperMethod || !hasAbstractSuperMethod;
+		} else {
+			return true;
+		}
+	}
+
 	/**
 	 * Check if the it is safe to remove the given library method exception (i.e.,
 	 * if it is in the set of library classes or not).
@@ -10,6 +10,7 @@
  *******************************************************************************/
 package averroes.soot;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -24,13 +25,14 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import averroes.options.AverroesOptions;
+import averroes.util.io.ClassFileReader;
 import averroes.util.io.Paths;
 import averroes.util.io.Resource;
 import averroes.util.io.ZipEntryResource;
 import soot.ClassProvider;
 import soot.ClassSource;
 import soot.CoffiClassSource;
-import soot.coffi.ClassFile;
+import soot.Scene;
 
 /**
  * This class provider adds the Java classes from the application JAR to the
@@ -44,9 +46,15 @@ import soot.coffi.ClassFile;
  */
 public class JarFactoryClassProvider implements ClassProvider {
 
+	/**
+	 * The constant pool of most classes fits in this many bytes.
+	 */
+	private static final int HEADER_BUFFER_SIZE = 4096;
+
 	private Set<String> applicationClassNames;
 	private Set<String> libraryClassNames;
 	private Map<String, Resource> classes;
+	private ZipFile libraryArchive;
 
 	/**
 	 * Construct a new class provider.
@@ -94,12 +102,19 @@ public class JarFactoryClassProvider implements ClassProvider {
 		System.out.println("");
 		System.out.println("Preparing Averroes ...");
 		addApplicationArchive();
-		addLibraryArchive();
+
+		// There are no application class files to start from for android
+		if (AverroesOptions.isReachableLibraryOnly() && !AverroesOptions.isAndroid()) {
+			addReachableLibraryClasses();
+		} else {
+			addLibraryArchive();
+		}
 	}
 
 	/**
 	 * Add a class file in a zip/jar archive. Returns the class name of the
-	 * class that was added.
+	 * class that was added. Only the header of the class file is inflated to
+	 * get its name, the class is fully parsed later by Soot when it is loaded.
 	 * 
 	 * @param archive
 	 * @param entry
@@ -108,7 +123,15 @@ public class JarFactoryClassProvider implements ClassProvider {
 	 * @throws IOException
 	 */
 	public String addClass(ZipFile archive, ZipEntry entry, boolean fromApplicationArchive) throws IOException {
-		return addClass(entry.getName(), new ZipEntryResource(archive, entry), fromApplicationArchive);
+		String className;
+		InputStream stream = new BufferedInputStream(archive.getInputStream(entry), HEADER_BUFFER_SIZE);
+		try {
+			className = ClassFileReader.readClassName(stream);
+		} finally {
+			stream.close();
+		}
+
+		return registerClass(className, new ZipEntryResource(archive, entry), fromApplicationArchive);
 	}
 
 	/**
@@ -121,20 +144,26 @@ public class JarFactoryClassProvider implements ClassProvider {
 	 * @throws IOException
 	 */
 	public String addClass(String path, Resource resource, boolean fromApplicationArchive) throws IOException {
-		ClassFile c = new ClassFile(path);
-
-		InputStream stream = null;
+		String className;
+		InputStream stream = resource.open();
 		try {
-			stream = resource.open();
-			c.loadClassFile(stream);
+			className = ClassFileReader.readClassName(stream);
 		} finally {
-			if (stream != null) {
-				stream.close();
-			}
+			stream.close();
 		}
 
-		String className = c.toString().replace('/', '.');
+		return registerClass(className, resource, fromApplicationArchive);
+	}
 
+	/**
+	 * Add the class with the given name that is stored in the given resource.
+	 * 
+	 * @param className
+	 * @param resource
+	 * @param fromApplicationArchive
+	 * @return
+	 */
+	private String registerClass(String className, Resource resource, boolean fromApplicationArchive) {
 		if (classes.containsKey(className)) {
 			// This means we encountered another copy of the class later on the
 			// path, this should never happen!
@@ -209,12 +238,59 @@ public class JarFactoryClassProvider implements ClassProvider {
 		return addArchive(Paths.organizedLibraryJarFile(), false);
 	}
 
+	/**
+	 * Add the classes in the organized library archive that are reachable from
+	 * the application classes to the class provider. Any other library class
+	 * is only added when Soot asks for it.
+	 * 
+	 * @throws IOException
+	 */
+	private void addReachableLibraryClasses() throws IOException {
+		File file = Paths.organizedLibraryJarFile();
+		System.out.println("Adding reachable classes of library archive: " + file.getAbsolutePath());
+		libraryArchive = new ZipFile(file);
+
+		ReachableLibraryClasses reachable = new ReachableLibraryClasses(libraryArchive);
+		ZipFile applicationArchive = new ZipFile(Paths.organizedApplicationJarFile());
+		try {
+			reachable.addApplicationArchive(applicationArchive);
+		} finally {
+			applicationArchive.close();
+		}
+		reachable.addClasses(Scene.v().getBasicClasses());
+		reachable.addClasses(AverroesOptions.getDynamicLibraryClasses());
+
+		for (String className : reachable.getClassNames()) {
+			addLibraryClass(className);
+		}
+		System.out.println("# reachable library classes: " + libraryClassNames.size());
+	}
+
+	/**
+	 * Add the class with the given name from the organized library archive, if
+	 * it is there. This is only used when only the reachable library classes
+	 * are added upfront.
+	 * 
+	 * @param className
+	 * @return
+	 */
+	private String addLibraryClass(String className) {
+		ZipEntry entry = libraryArchive.getEntry(className.replace('.', '/') + ".class");
+		return entry == null ? null : registerClass(className, new ZipEntryResource(libraryArchive, entry), false);
+	}
+
 	/**
 	 * Find the class for the given className. This method is invoked by
 	 * {@link soot.SourceLocator}.
 	 */
 	@Override
 	public ClassSource find(String className) {
+		// Soot might still ask for a library class that was not found to be
+		// reachable, e.g., through a reference that is not in the class files
+		if (!classes.containsKey(className) && libraryArchive != null) {
+			addLibraryClass(className);
+		}
+
 		if (classes.containsKey(className)) {
 			Resource resource = classes.get(className);
 			try {
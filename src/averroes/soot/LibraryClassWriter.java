@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Karim Ali and Ondřej Lhoták.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Karim Ali - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+package averroes.soot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import soot.Body;
+import soot.PackManager;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.baf.BafASMBackend;
+import soot.jimple.JimpleBody;
+import soot.options.Options;
+import soot.util.JasminOutputStream;
+import averroes.options.AverroesOptions;
+
+/**
+ * A writer for the class files of the placeholder library classes. The class
+ * files are assembled and written one at a time on the calling thread:
+ * assembling a class builds unit graphs and looks up types in the Scene, and
+ * none of the Soot singletons involved are thread-safe.
+ * 
+ * The class files are assembled from Jasmin text by default, or generated
+ * directly by the ASM backend of Soot if
+ * {@link AverroesOptions#isAsmBackend()} is set. They are written to the
+ * library classes directory, or kept in memory until they are added to the
+ * JAR files if {@link AverroesOptions#isInMemory()} is set.
+ * 
+ * @author karim
+ * 
+ */
+public class LibraryClassWriter {
+
+	private static Map<String, byte[]> classFiles = new ConcurrentSkipListMap<String, byte[]>();
+
+	/**
+	 * Get the class files kept in memory, keyed by their entry names (e.g.,
+	 * java/lang/Object.class).
+	 * 
+	 * @return
+	 */
+	public static Map<String, byte[]> getClassFiles() {
+		return Collections.unmodifiableMap(classFiles);
+	}
+
+	/**
+	 * Assemble the given class and write it to the given file, or keep it in
+	 * memory if {@link AverroesOptions#isInMemory()} is set.
+	 * 
+	 * @param cls
+	 * @param file
+	 * @throws IOException
+	 */
+	static void write(SootClass cls, File file) throws IOException {
+		store(getEntryName(cls), file, assemble(cls));
+	}
+
+	/**
+	 * Assemble the class file of the given class, from Jasmin text or with the
+	 * ASM backend.
+	 * 
+	 * @param cls
+	 * @return
+	 * @throws IOException
+	 */
+	private static byte[] assemble(SootClass cls) throws IOException {
+		if (AverroesOptions.isAsmBackend()) {
+			return generateWithAsm(cls);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream streamOut = new JasminOutputStream(bytes);
+		PrintWriter writerOut = new PrintWriter(new OutputStreamWriter(streamOut));
+
+		if (cls.containsBafBody()) {
+			new soot.baf.JasminClass(cls).print(writerOut);
+		} else {
+			new soot.jimple.JasminClass(cls).print(writerOut);
+		}
+
+		writerOut.flush();
+		streamOut.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Write the given class file to the given file, or keep it in memory under
+	 * the given entry name if {@link AverroesOptions#isInMemory()} is set.
+	 * 
+	 * @param entryName
+	 * @param file
+	 * @param bytes
+	 * @throws IOException
+	 */
+	private static void store(String entryName, File file, byte[] bytes) throws IOException {
+		if (AverroesOptions.isInMemory()) {
+			classFiles.put(entryName, bytes);
+		} else {
+			file.getParentFile().mkdirs();
+			Files.write(file.toPath(), bytes);
+		}
+	}
+
+	/**
+	 * Get the name of the entry of the class file of the given class in a JAR
+	 * file (e.g., java/lang/Object.class).
+	 * 
+	 * @param cls
+	 * @return
+	 */
+	private static String getEntryName(SootClass cls) {
+		return cls.getName().replace('.', '/') + ".class";
+	}
+
+	/**
+	 * Generate the class file for the given class directly with the ASM
+	 * backend of Soot, without going through Jasmin text. The backend works on
+	 * Baf bodies, so the Jimple bodies of the class are converted to Baf for
+	 * the time being, and restored afterwards.
+	 * 
+	 * @param cls
+	 * @return
+	 */
+	private static byte[] generateWithAsm(SootClass cls) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Map<SootMethod, Body> jimpleBodies = new HashMap<SootMethod, Body>();
+		for (SootMethod method : cls.getMethods()) {
+			if (method.hasActiveBody() && method.getActiveBody() instanceof JimpleBody) {
+				jimpleBodies.put(method, method.getActiveBody());
+				method.setActiveBody(PackManager.v().convertJimpleBodyToBaf(method));
+			}
+		}
+
+		try {
+			new BafASMBackend(cls, Options.v().java_version()).generateClassFile(out);
+		} finally {
+			for (Map.Entry<SootMethod, Body> entry : jimpleBodies.entrySet()) {
+				entry.getKey().setActiveBody(entry.getValue());
+			}
+		}
+
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Karim Ali and Ondřej Lhoták.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Karim Ali - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+package averroes.soot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+
+import averroes.util.io.ClassFileReader;
+
+/**
+ * The library classes that are reachable from the application classes. This
+ * follows the same rules Soot uses to resolve classes starting from the
+ * application classes: any library class referenced in the constant pool of an
+ * application class is resolved to the level {@link ResolvingLevel#SIGNATURES},
+ * the classes in the signatures of those classes are resolved to the level
+ * {@link ResolvingLevel#HIERARCHY}, and the supertypes of any resolved class
+ * are resolved to the level {@link ResolvingLevel#HIERARCHY} too. The class
+ * files are only scanned for their constant pool and member signatures, they
+ * are never fully parsed.
+ * 
+ * @author karim
+ * 
+ */
+public class ReachableLibraryClasses {
+
+	private ZipFile libraryArchive;
+	private Set<String> classNames;
+	private Map<String, ResolvingLevel> classToLevel;
+	private Deque<String> worklist;
+
+	/**
+	 * Construct a new set of reachable library classes for the classes in the
+	 * given library archive.
+	 * 
+	 * @param libraryArchive
+	 */
+	public ReachableLibraryClasses(ZipFile libraryArchive) {
+		this.libraryArchive = libraryArchive;
+		classNames = new HashSet<String>();
+		classToLevel = new HashMap<String, ResolvingLevel>();
+		worklist = new ArrayDeque<String>();
+	}
+
+	/**
+	 * Get the names of the reachable library classes.
+	 * 
+	 * @return
+	 */
+	public Set<String> getClassNames() {
+		return classNames;
+	}
+
+	/**
+	 * Add all the library classes referenced by the application classes in
+	 * the given archive.
+	 * 
+	 * @param applicationArchive
+	 * @throws IOException
+	 */
+	public void addApplicationArchive(ZipFile applicationArchive) throws IOException {
+		Enumeration<? extends ZipEntry> entries = applicationArchive.entries();
+		while (entries.hasMoreElements()) {
+			ZipEntry entry = entries.nextElement();
+			if (entry.getName().endsWith(".class")) {
+				addApplicationClass(read(applicationArchive, entry));
+			}
+		}
+		resolve();
+	}
+
+	/**
+	 * Add the given library classes (e.g., the basic classes of Soot).
+	 * 
+	 * @param classNames
+	 * @throws IOException
+	 */
+	public void addClasses(Collection<String> classNames) throws IOException {
+		for (String className : classNames) {
+			add(className, ResolvingLevel.SIGNATURES);
+		}
+		resolve();
+	}
+
+	/**
+	 * Add the library classes referenced by the given application class.
+	 * 
+	 * @param cls
+	 * @throws IOException
+	 */
+	private void addApplicationClass(ClassFileReader cls) throws IOException {
+		for (int i = 1; i < cls.getConstantPoolCount(); i++) {
+			switch (cls.getTag(i)) {
+			case ClassFileReader.CONSTANT_CLASS:
+				// Array classes are referenced by their descriptors
+				String name = cls.getInternalClassName(i);
+				if (name.startsWith("[")) {
+					addAll(ClassFileReader.getDescriptorClassNames(name), ResolvingLevel.SIGNATURES);
+				} else {
+					add(name.replace('/', '.'), ResolvingLevel.SIGNATURES);
+				}
+				break;
+			case ClassFileReader.CONSTANT_NAME_AND_TYPE:
+			case ClassFileReader.CONSTANT_METHOD_TYPE:
+				addDescriptor(cls.getDescriptor(i));
+				break;
+			}
+		}
+
+		addSignatures(cls);
+	}
+
+	/**
+	 * Resolve the classes in the worklist until there are no more classes to
+	 * resolve.
+	 * 
+	 * @throws IOException
+	 */
+	private void resolve() throws IOException {
+		while (!worklist.isEmpty()) {
+			String className = worklist.poll();
+			ZipEntry entry = libraryArchive.getEntry(className.replace('.', '/') + ".class");
+
+			// Not a library class, e.g., an application class or a class that
+			// is missing from the library
+			if (entry == null) {
+				continue;
+			}
+
+			classNames.add(className);
+			ClassFileReader cls = read(libraryArchive, entry);
+			if (cls.getSuperClassName() != null) {
+				add(cls.getSuperClassName(), ResolvingLevel.HIERARCHY);
+			}
+			addAll(cls.getInterfaceNames(), ResolvingLevel.HIERARCHY);
+
+			if (classToLevel.get(className) == ResolvingLevel.SIGNATURES) {
+				addSignatures(cls);
+			}
+		}
+	}
+
+	/**
+	 * Add the classes in the signatures of the fields and methods declared in
+	 * the given class.
+	 * 
+	 * @param cls
+	 * @throws IOException
+	 */
+	private void addSignatures(ClassFileReader cls) throws IOException {
+		for (ClassFileReader.Member field : cls.getFields()) {
+			addDescriptor(field.getDescriptor());
+		}
+		for (ClassFileReader.Member method : cls.getMethods()) {
+			addDescriptor(method.getDescriptor());
+		}
+		addAll(cls.getExceptionNames(), ResolvingLevel.HIERARCHY);
+	}
+
+	/**
+	 * Add the classes in the given field or method descriptor.
+	 * 
+	 * @param descriptor
+	 */
+	private void addDescriptor(String descriptor) {
+		addAll(ClassFileReader.getDescriptorClassNames(descriptor), ResolvingLevel.HIERARCHY);
+	}
+
+	/**
+	 * Add the given classes at the given level.
+	 * 
+	 * @param classNames
+	 * @param level
+	 */
+	private void addAll(Collection<String> classNames, ResolvingLevel level) {
+		for (String className : classNames) {
+			add(className, level);
+		}
+	}
+
+	/**
+	 * Add the given class at the given level. The class is added to the
+	 * worklist if it has not been resolved at that level yet.
+	 * 
+	 * @param className
+	 * @param level
+	 */
+	private void add(String className, ResolvingLevel level) {
+		ResolvingLevel current = classToLevel.get(className);
+		if (current == null || current.value() < level.value()) {
+			classToLevel.put(className, level);
+			worklist.add(className);
+		}
+	}
+
+	/**
+	 * Read the class file of the given entry.
+	 * 
+	 * @param archive
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	private static ClassFileReader read(ZipFile archive, ZipEntry entry) throws IOException {
+		InputStream in = archive.getInputStream(entry);
+		try {
+			return new ClassFileReader(IOUtils.toByteArray(in));
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -51,22 +51,20 @@ public class SootBasicClassesDatabase {
 	 */
 	public Set<SootClass> getMissingBasicClasses() throws IOException {
 		Set<SootClass> result = new HashSet<SootClass>();
-		for (String className : listClasses()) {
-			if (!hierarchy.isLibraryClass(className)) {
-				SootClass basicClass = new SootClass(className);
-
-				// Add the register method to the finalizer class
-				if (className.equals(Names.JAVA_LANG_REF_FINALIZER)) {
-					SootMethod register = new SootMethod("register", Arrays.asList((Type) hierarchy.getJavaLangObject()
-							.getType()), VoidType.v(), Modifier.STATIC);
-					basicClass.addMethod(register);
-					AverroesJimpleBody body = new AverroesJimpleBody(register);
-					body.insertStandardJimpleBodyFooter();
-					body.validate();
-				}
-
-				result.add(basicClass);
+		for (String className : getMissingBasicClassNames()) {
+			SootClass basicClass = new SootClass(className);
+
+			// Add the register method to the finalizer class
+			if (className.equals(Names.JAVA_LANG_REF_FINALIZER)) {
+				SootMethod register = new SootMethod("register", Arrays.asList((Type) hierarchy.getJavaLangObject()
+						.getType()), VoidType.v(), Modifier.STATIC);
+				basicClass.addMethod(register);
+				AverroesJimpleBody body = new AverroesJimpleBody(register);
+				body.insertStandardJimpleBodyFooter();
+				body.validate();
 			}
+
+			result.add(basicClass);
 		}
 
 		// Set the superclass of the basic classes based on the underlying
@@ -79,6 +77,22 @@ public class SootBasicClassesDatabase {
 		return result;
 	}
 
+	/**
+	 * Get the names of all the basic classes that are missing from the
+	 * hierarchy.
+	 * 
+	 * @return
+	 */
+	public Set<String> getMissingBasicClassNames() {
+		Set<String> result = new HashSet<String>();
+		for (String className : listClasses()) {
+			if (!hierarchy.isLibraryClass(className)) {
+				result.add(className);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Get a list of all the basic class names.
 	 * 
@@ -13,13 +13,8 @@ package averroes.util;
 import java.util.Arrays;
 import java.util.List;
 
-import soot.ResolutionFailedException;
-import soot.Scene;
-import soot.SootClass;
 import soot.SootField;
-import soot.SootFieldRef;
 import soot.SootMethod;
-import soot.SootMethodRef;
 import soot.Type;
 import soot.coffi.Util;
 
@@ -52,7 +47,8 @@ public class BytecodeUtils {
 	}
 
 	/**
-	 * Resolve the given bits of a method signature to the corresponding SootMethod from the Soot Scene.
+	 * Resolve the given bits of a method signature to the corresponding SootMethod from the Soot Scene. The result is
+	 * cached by the {@link MemberResolutionCache}.
 	 * 
 	 * @param className
 	 * @param methodName
@@ -60,51 +56,19 @@ public class BytecodeUtils {
 	 * @return
 	 */
 	public static SootMethod makeSootMethod(String className, String methodName, String methodDescriptor) {
-		SootClass cls = Scene.v().getSootClass(className);
-
-		List<Type> parameterTypes = getParameterTypes(methodDescriptor);
-		Type returnType = getReturnType(methodDescriptor);
-
-		/*
-		 * Get the method ref and resolve it to a Soot method. We need to resolve to the actual method that will be
-		 * called at runtime, or might be resolved by a static analysis. Otherwise, we'll just get the interface method.
-		 */
-		SootMethodRef methodRef = Scene.v().makeMethodRef(cls, methodName, parameterTypes, returnType, false);
-		SootMethod method;
-
-		/*
-		 * We have to do this ugly code. Try first and see if the method is not static. If it is static, then create a
-		 * new methodRef in the catch and resolve it again with isStatic = true.
-		 */
-		try {
-			method = methodRef.resolve();
-		} catch (ResolutionFailedException e) {
-			methodRef = Scene.v().makeMethodRef(cls, methodName, parameterTypes, returnType, true);
-		}
-		method = methodRef.resolve();
-
-		return method;
+		return MemberResolutionCache.v().getMethod(className, methodName, methodDescriptor);
 	}
 
+	/**
+	 * Resolve the given bits of a field signature to the corresponding SootField from the Soot Scene. The result is
+	 * cached by the {@link MemberResolutionCache}.
+	 * 
+	 * @param className
+	 * @param fieldName
+	 * @param fieldDescriptor
+	 * @return
+	 */
 	public static SootField makeSootField(String className, String fieldName, String fieldDescriptor) {
-		SootClass cls = Scene.v().getSootClass(className);
-		Type fieldType = getFieldType(fieldDescriptor);
-
-		// Get the field ref and resolve it to a Soot field
-		SootFieldRef fieldRef = Scene.v().makeFieldRef(cls, fieldName, fieldType, false);
-		SootField field;
-
-		/*
-		 * We have to do this ugly code. Try first and see if the field is not static. If it is static, then create a
-		 * new fieldRef in the catch and resolve it again with isStatic = true.
-		 */
-		try {
-			field = fieldRef.resolve();
-		} catch (ResolutionFailedException e) {
-			fieldRef = Scene.v().makeFieldRef(cls, fieldName, fieldType, true);
-		}
-		field = fieldRef.resolve();
-
-		return field;
+		return MemberResolutionCache.v().getField(className, fieldName, fieldDescriptor);
 	}
 }
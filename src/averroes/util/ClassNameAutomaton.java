@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Karim Ali and Ondřej Lhoták.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Karim Ali - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+package averroes.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * An Aho-Corasick automaton that finds the occurrences of a set of class names
+ * in a string. Every class name is added in both its dotted (e.g.,
+ * java.lang.Object) and slashed (e.g., java/lang/Object) forms. A string is
+ * scanned in one pass, so matching is linear in the length of the string plus
+ * the number of occurrences found.
+ * 
+ * An occurrence only counts if it is not part of a longer name, i.e., it is
+ * not preceded by a Java identifier character or a package separator, and it
+ * is not followed by a Java identifier character. The L that starts a type
+ * descriptor is skipped. For example, a.B is found in "(La/B;)V" and in
+ * "a.B.class", but not in "a.BC" or "xa.B".
+ * 
+ * The automaton is not modified once it is created, so it can be shared by
+ * several threads.
+ * 
+ * @author karim
+ * 
+ */
+public class ClassNameAutomaton {
+
+	private static final int ROOT = 0;
+	private static final int NONE = -1;
+
+	private List<String> classNames;
+
+	// The trie, each state stores its children as a linked list
+	private char[] label;
+	private int[] firstChild;
+	private int[] nextSibling;
+	private int[] depth;
+	private int stateCount;
+
+	// The failure links, and the index of the class name that ends at each
+	// state (if any) together with the link to the next such state on the
+	// failure path
+	private int[] failure;
+	private int[] output;
+	private int[] outputLink;
+
+	/**
+	 * Construct a new automaton for the given class names.
+	 * 
+	 * @param classNames
+	 */
+	public ClassNameAutomaton(Collection<String> classNames) {
+		this.classNames = new ArrayList<String>(classNames);
+
+		int capacity = 1;
+		for (String className : classNames) {
+			capacity += 2 * className.length();
+		}
+		label = new char[capacity];
+		firstChild = new int[capacity];
+		nextSibling = new int[capacity];
+		depth = new int[capacity];
+		output = new int[capacity];
+		Arrays.fill(firstChild, NONE);
+		Arrays.fill(output, NONE);
+		stateCount = 1;
+
+		for (int i = 0; i < this.classNames.size(); i++) {
+			String className = this.classNames.get(i);
+			add(className, i);
+			add(className.replace('.', '/'), i);
+		}
+
+		calculateFailureLinks();
+	}
+
+	/**
+	 * Find the class names that occur in the given string, and add them to the
+	 * given collection.
+	 * 
+	 * @param text
+	 * @param result
+	 */
+	public void match(String text, Collection<String> result) {
+		int state = ROOT;
+		for (int i = 0; i < text.length(); i++) {
+			state = next(state, text.charAt(i));
+
+			int end = i + 1;
+			for (int s = output[state] != NONE ? state : outputLink[state]; s != NONE; s = outputLink[s]) {
+				if (isBoundary(text, end - depth[s], end)) {
+					result.add(classNames.get(output[s]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add the given name to the trie.
+	 * 
+	 * @param name
+	 * @param index
+	 *            the index of the class name in the list of class names
+	 */
+	private void add(String name, int index) {
+		int state = ROOT;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			int child = child(state, c);
+			if (child == NONE) {
+				child = stateCount++;
+				label[child] = c;
+				depth[child] = depth[state] + 1;
+				nextSibling[child] = firstChild[state];
+				firstChild[state] = child;
+			}
+			state = child;
+		}
+
+		if (output[state] == NONE) {
+			output[state] = index;
+		}
+	}
+
+	/**
+	 * Calculate the failure links and the output links of all the states, in
+	 * breadth-first order.
+	 */
+	private void calculateFailureLinks() {
+		failure = new int[stateCount];
+		outputLink = new int[stateCount];
+		failure[ROOT] = ROOT;
+		outputLink[ROOT] = NONE;
+
+		Deque<Integer> worklist = new ArrayDeque<Integer>();
+		for (int child = firstChild[ROOT]; child != NONE; child = nextSibling[child]) {
+			failure[child] = ROOT;
+			outputLink[child] = NONE;
+			worklist.add(child);
+		}
+
+		while (!worklist.isEmpty()) {
+			int state = worklist.poll();
+			for (int child = firstChild[state]; child != NONE; child = nextSibling[child]) {
+				int f = next(failure[state], label[child]);
+				failure[child] = f;
+				outputLink[child] = output[f] != NONE ? f : outputLink[f];
+				worklist.add(child);
+			}
+		}
+	}
+
+	/**
+	 * Get the state that follows the given state on the given character,
+	 * following the failure links as needed.
+	 * 
+	 * @param state
+	 * @param c
+	 * @return
+	 */
+	private int next(int state, char c) {
+		int child;
+		while ((child = child(state, c)) == NONE && state != ROOT) {
+			state = failure[state];
+		}
+		return child == NONE ? ROOT : child;
+	}
+
+	/**
+	 * Get the child of the given state on the given character in the trie, or
+	 * NONE if there is none.
+	 * 
+	 * @param state
+	 * @param c
+	 * @return
+	 */
+	private int child(int state, char c) {
+		for (int child = firstChild[state]; child != NONE; child = nextSibling[child]) {
+			if (label[child] == c) {
+				return child;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Check that the occurrence between the given indices is not part of a
+	 * longer name.
+	 * 
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private static boolean isBoundary(String text, int start, int end) {
+		// Skip the L of a type descriptor (e.g., [La/B;)
+		if (start > 0 && text.charAt(start - 1) == 'L' && isStart(text, start - 1)) {
+			start--;
+		}
+
+		return isStart(text, start) && (end == text.length() || !Character.isJavaIdentifierPart(text.charAt(end)));
+	}
+
+	/**
+	 * Check that a name can start at the given index.
+	 * 
+	 * @param text
+	 * @param start
+	 * @return
+	 */
+	private static boolean isStart(String text, int start) {
+		if (start == 0) {
+			return true;
+		}
+
+		char before = text.charAt(start - 1);
+		return !Character.isJavaIdentifierPart(before) && before != '.' && before != '/';
+	}
+}
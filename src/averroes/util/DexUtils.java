@@ -3,17 +3,33 @@ package averroes.util;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipException;
 
-import org.jf.dexlib2.Opcode;
 import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.raw.ClassDefItem;
 import org.jf.dexlib2.dexbacked.raw.RawDexFile;
-
-import com.google.common.base.MoreObjects;
-import com.google.common.io.ByteStreams;
+import org.jf.dexlib2.dexbacked.reference.DexBackedFieldReference;
+import org.jf.dexlib2.dexbacked.reference.DexBackedMethodReference;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
 
 import averroes.android.SetupAndroid;
+import averroes.options.AverroesOptions;
+import averroes.util.io.RawZipEntry;
+import averroes.util.io.RawZipFile;
 
 /**
  * 
@@ -23,48 +39,178 @@ import averroes.android.SetupAndroid;
  */
 
 public class DexUtils {
-	
+
+	/**
+	 * The dex entries of an APK file: classes.dex, classes2.dex, classes3.dex, ...
+	 */
+	private static final Pattern DEX_ENTRY = Pattern.compile("classes(\\d*)\\.dex");
+
 	/**
 	 * dexlib2 does not provide means to create a raw dex file. This method serves
-	 * as utility to return an object of type "RawDexFile".
+	 * as utility to return all the dex files of the given APK file as objects of
+	 * type "RawDexFile", in the order the Android runtime loads them (i.e.,
+	 * classes.dex, classes2.dex, ...). The dex files are read in parallel in
+	 * parallel mode. If the given file is not a zip file, it is read as a single
+	 * dex file.
+	 * 
+	 * @param apkFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<RawDexFile> getRawDexFiles(File apkFile) throws IOException {
+		Opcodes opcodes = Opcodes.forApi(SetupAndroid.v().getApiVersion());
+
+		RawZipFile apk;
+		try {
+			apk = new RawZipFile(apkFile);
+		} catch (ZipException ex) {
+			return Collections.singletonList(new RawDexFile(opcodes, Files.readAllBytes(apkFile.toPath())));
+		}
+
+		try {
+			List<RawZipEntry> entries = getDexEntries(apk);
+			if (entries.isEmpty()) {
+				throw new FileNotFoundException("zip file " + apkFile.getName() + " does not contain a classes.dex file");
+			}
+
+			// Stored entries are read straight from the archive into a buffer of
+			// the exact size, only deflated entries go through an inflater
+			List<Callable<RawDexFile>> tasks = new ArrayList<Callable<RawDexFile>>();
+			for (RawZipEntry entry : entries) {
+				tasks.add(() -> new RawDexFile(opcodes, apk.readData(entry)));
+			}
+
+			ExecutorService pool = Executors.newFixedThreadPool(Math.min(entries.size(),
+					AverroesOptions.getThreadCount()));
+			try {
+				List<RawDexFile> result = new ArrayList<RawDexFile>();
+				for (Future<RawDexFile> future : pool.invokeAll(tasks)) {
+					result.add(future.get());
+				}
+				return result;
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while reading the dex files of " + apkFile.getName(), ex);
+			} catch (ExecutionException ex) {
+				if (ex.getCause() instanceof IOException) {
+					throw (IOException) ex.getCause();
+				}
+				throw new RuntimeException(ex.getCause());
+			} finally {
+				pool.shutdown();
+			}
+		} finally {
+			apk.close();
+		}
+	}
+
+	/**
+	 * Get the class descriptors defined in any of the given dex files.
+	 * 
+	 * @param rawDexFiles
+	 * @return
+	 */
+	public static String[] getClasses(List<RawDexFile> rawDexFiles) {
+		Set<String> result = new LinkedHashSet<String>();
+		for (RawDexFile rawDex : rawDexFiles) {
+			Collections.addAll(result, ClassDefItem.getClasses(rawDex));
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * Get the typed method references in any of the given dex files, each one
+	 * only once even if it appears in several dex files.
+	 * 
+	 * @param rawDexFiles
+	 * @return
+	 */
+	public static Set<MethodReference> getMethodReferences(List<RawDexFile> rawDexFiles) {
+		Set<MethodReference> result = new LinkedHashSet<MethodReference>();
+		for (RawDexFile rawDex : rawDexFiles) {
+			for (int i = 0; i < rawDex.getMethodCount(); i++) {
+				result.add(new DexBackedMethodReference(rawDex, rawDex.getMethodIdItemOffset(i)));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get the typed field references in any of the given dex files, each one
+	 * only once even if it appears in several dex files.
+	 * 
+	 * @param rawDexFiles
+	 * @return
+	 */
+	public static Set<FieldReference> getFieldReferences(List<RawDexFile> rawDexFiles) {
+		Set<FieldReference> result = new LinkedHashSet<FieldReference>();
+		for (RawDexFile rawDex : rawDexFiles) {
+			for (int i = 0; i < rawDex.getFieldCount(); i++) {
+				result.add(new DexBackedFieldReference(rawDex, rawDex.getFieldIdItemOffset(i)));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get the name of the class for the given type descriptor of a defining
+	 * class (e.g., java.lang.Object for Ljava/lang/Object;). Members of array
+	 * types are members of java.lang.Object.
+	 * 
+	 * @param typeDescriptor
+	 * @return
+	 */
+	public static String getClassName(String typeDescriptor) {
+		if (typeDescriptor.charAt(0) == '[') {
+			return "java.lang.Object";
+		}
+		return typeDescriptor.substring(1, typeDescriptor.length() - 1).replace('/', '.');
+	}
+
+	/**
+	 * Get the method descriptor of the given method reference (e.g.,
+	 * (Ljava/lang/String;I)V).
+	 * 
+	 * @param method
+	 * @return
+	 */
+	public static String getDescriptor(MethodReference method) {
+		StringBuilder result = new StringBuilder("(");
+		for (CharSequence parameterType : method.getParameterTypes()) {
+			result.append(parameterType);
+		}
+		return result.append(')').append(method.getReturnType()).toString();
+	}
+
+	/**
+	 * Get the dex entries of the given APK file, in the order the Android
+	 * runtime loads them.
+	 * 
+	 * @param apk
+	 * @return
+	 */
+	private static List<RawZipEntry> getDexEntries(RawZipFile apk) {
+		List<RawZipEntry> result = new ArrayList<RawZipEntry>();
+		for (RawZipEntry entry : apk.entries()) {
+			if (DEX_ENTRY.matcher(entry.getName()).matches()) {
+				result.add(entry);
+			}
+		}
+
+		result.sort((a, b) -> Integer.compare(getDexIndex(a), getDexIndex(b)));
+		return result;
+	}
+
+	/**
+	 * Get the index of the given dex entry, where classes.dex is 1.
+	 * 
+	 * @param entry
 	 * @return
 	 */
-	public static RawDexFile getRawDex(File dexFile, String dexEntry) throws IOException {
-        ZipFile zipFile = null;
-        boolean isZipFile = false;
-        try {
-            zipFile = new ZipFile(dexFile);
-            // if we get here, it's safe to assume we have a zip file
-            isZipFile = true;
-
-            String zipEntryName = MoreObjects.firstNonNull(dexEntry, "classes.dex");
-            ZipEntry zipEntry = zipFile.getEntry(zipEntryName);
-            if (zipEntry == null) {
-                throw new FileNotFoundException("zip file" + dexFile.getName() + " does not contain a " + zipEntryName + " file");
-            }
-            long fileLength = zipEntry.getSize();
-
-            byte[] dexBytes = new byte[(int)fileLength];
-            ByteStreams.readFully(zipFile.getInputStream(zipEntry), dexBytes);
-
-            int api = SetupAndroid.v().getApiVersion();
-            Opcodes opcodes = Opcodes.forApi(api);
-            return new RawDexFile(opcodes, dexBytes);
-        } catch (IOException ex) {
-            // don't continue on if we know it's a zip file
-            if (isZipFile) {
-                throw ex;
-            }
-        } finally {
-            if (zipFile != null) {
-                try {
-                    zipFile.close();
-                } catch (IOException ex) {
-                    // just eat it
-                }
-            }
-        }	
-        return null;
+	private static int getDexIndex(RawZipEntry entry) {
+		Matcher m = DEX_ENTRY.matcher(entry.getName());
+		m.matches();
+		return m.group(1).isEmpty() ? 1 : Integer.parseInt(m.group(1));
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Karim Ali and Ondřej Lhoták.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Karim Ali - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+package averroes.util;
+
+/**
+ * A symbolic reference to a method or a field, as found in a constant pool:
+ * the name of its owner class, its name, and its descriptor.
+ * 
+ * @author karim
+ * 
+ */
+public final class MemberReference {
+
+	private final String className;
+	private final String name;
+	private final String descriptor;
+	private final int hash;
+
+	/**
+	 * Construct a new member reference.
+	 * 
+	 * @param className
+	 * @param name
+	 * @param descriptor
+	 */
+	public MemberReference(String className, String name, String descriptor) {
+		this.className = className;
+		this.name = name;
+		this.descriptor = descriptor;
+		hash = 31 * (31 * className.hashCode() + name.hashCode()) + descriptor.hashCode();
+	}
+
+	/**
+	 * The name of the owner class of the member (e.g., java.lang.Object).
+	 * 
+	 * @return
+	 */
+	public String getClassName() {
+		return className;
+	}
+
+	/**
+	 * The name of the member.
+	 * 
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The descriptor of the member.
+	 * 
+	 * @return
+	 */
+	public String getDescriptor() {
+		return descriptor;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof MemberReference)) {
+			return false;
+		}
+		MemberReference other = (MemberReference) obj;
+		return className.equals(other.className) && name.equals(other.name) && descriptor.equals(other.descriptor);
+	}
+
+	@Override
+	public String toString() {
+		return className + "." + name + descriptor;
+	}
+}
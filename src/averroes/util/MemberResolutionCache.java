@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Karim Ali and Ondřej Lhoták.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Karim Ali - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+package averroes.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import soot.Scene;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Type;
+
+/**
+ * A cache of the methods and fields resolved from their owner class, name, and
+ * descriptor. The application classes reference the same library members over
+ * and over again (e.g., String.valueOf), so each member is resolved once, and
+ * its descriptor is parsed only then.
+ * 
+ * A member is resolved by looking it up in its owner class and the supertypes
+ * of that class, the same way the JVM does. Whether the member is static is
+ * taken from the member that is found, so there is no need to try a static
+ * and a non-static reference in turn.
+ * 
+ * @author karim
+ * 
+ */
+public class MemberResolutionCache {
+
+	private static MemberResolutionCache instance = new MemberResolutionCache();
+
+	private Map<MemberReference, SootMethod> methods;
+	private Map<MemberReference, SootField> fields;
+
+	private AtomicLong hits;
+	private AtomicLong misses;
+	private AtomicLong resolutionTime;
+
+	/**
+	 * Construct a new, empty member resolution cache.
+	 */
+	private MemberResolutionCache() {
+		methods = new ConcurrentHashMap<MemberReference, SootMethod>();
+		fields = new ConcurrentHashMap<MemberReference, SootField>();
+
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		resolutionTime = new AtomicLong();
+	}
+
+	/**
+	 * Get the member resolution cache.
+	 * 
+	 * @return
+	 */
+	public static MemberResolutionCache v() {
+		return instance;
+	}
+
+	/**
+	 * Get the method with the given name and descriptor, as resolved from the
+	 * given class.
+	 * 
+	 * @param className
+	 * @param methodName
+	 * @param methodDescriptor
+	 * @return
+	 */
+	public SootMethod getMethod(String className, String methodName, String methodDescriptor) {
+		return getMethod(new MemberReference(className, methodName, methodDescriptor));
+	}
+
+	/**
+	 * Get the method referenced by the given member reference.
+	 * 
+	 * @param reference
+	 * @return
+	 */
+	public SootMethod getMethod(MemberReference reference) {
+		SootMethod result = methods.get(reference);
+
+		// A cached method that has since been removed from its class (e.g.,
+		// during the cleanup of the library classes) is resolved again
+		if (result != null && result.isDeclared()) {
+			hits.incrementAndGet();
+		} else {
+			long start = System.nanoTime();
+			result = resolveMethod(Scene.v().getSootClass(reference.getClassName()), reference.getName(),
+					BytecodeUtils.getParameterTypes(reference.getDescriptor()),
+					BytecodeUtils.getReturnType(reference.getDescriptor()));
+			resolutionTime.addAndGet(System.nanoTime() - start);
+			misses.incrementAndGet();
+			methods.put(reference, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Get the field with the given name and descriptor, as resolved from the
+	 * given class.
+	 * 
+	 * @param className
+	 * @param fieldName
+	 * @param fieldDescriptor
+	 * @return
+	 */
+	public SootField getField(String className, String fieldName, String fieldDescriptor) {
+		return getField(new MemberReference(className, fieldName, fieldDescriptor));
+	}
+
+	/**
+	 * Get the field referenced by the given member reference.
+	 * 
+	 * @param reference
+	 * @return
+	 */
+	public SootField getField(MemberReference reference) {
+		SootField result = fields.get(reference);
+
+		if (result != null && result.isDeclared()) {
+			hits.incrementAndGet();
+		} else {
+			long start = System.nanoTime();
+			result = resolveField(Scene.v().getSootClass(reference.getClassName()), reference.getName(),
+					BytecodeUtils.getFieldType(reference.getDescriptor()));
+			resolutionTime.addAndGet(System.nanoTime() - start);
+			misses.incrementAndGet();
+			fields.put(reference, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Get the number of lookups that were answered from the cache.
+	 * 
+	 * @return
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of lookups that had to resolve the member.
+	 * 
+	 * @return
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Get the percentage of the lookups that were answered from the cache.
+	 * 
+	 * @return
+	 */
+	public double getHitRate() {
+		long total = getHitCount() + getMissCount();
+		return total == 0 ? 0 : MathUtils.round(100.0 * getHitCount() / total);
+	}
+
+	/**
+	 * Get the time spent resolving members, in seconds.
+	 * 
+	 * @return
+	 */
+	public double getResolutionTime() {
+		return MathUtils.round(resolutionTime.get() / 1e9);
+	}
+
+	/**
+	 * Resolve the method with the given signature from the given class. The
+	 * superclasses are searched first, then the superinterfaces. If the method
+	 * cannot be found, Soot resolves it (e.g., to a phantom method).
+	 * 
+	 * @param cls
+	 * @param methodName
+	 * @param parameterTypes
+	 * @param returnType
+	 * @return
+	 */
+	private static SootMethod resolveMethod(SootClass cls, String methodName, List<Type> parameterTypes,
+			Type returnType) {
+		Deque<SootClass> worklist = new ArrayDeque<SootClass>();
+		Set<SootClass> visited = new HashSet<SootClass>();
+
+		for (SootClass c = cls; c != null; c = c.hasSuperclass() ? c.getSuperclass() : null) {
+			if (c.declaresMethod(methodName, parameterTypes, returnType)) {
+				return c.getMethod(methodName, parameterTypes, returnType);
+			}
+			worklist.addAll(c.getInterfaces());
+		}
+
+		while (!worklist.isEmpty()) {
+			SootClass c = worklist.poll();
+			if (visited.add(c)) {
+				if (c.declaresMethod(methodName, parameterTypes, returnType)) {
+					return c.getMethod(methodName, parameterTypes, returnType);
+				}
+				worklist.addAll(c.getInterfaces());
+			}
+		}
+
+		return Scene.v().makeMethodRef(cls, methodName, parameterTypes, returnType, false).resolve();
+	}
+
+	/**
+	 * Resolve the field with the given name and type from the given class. For
+	 * each class, its superinterfaces are searched before its superclass. If
+	 * the field cannot be found, Soot resolves it (e.g., to a phantom field).
+	 * 
+	 * @param cls
+	 * @param fieldName
+	 * @param fieldType
+	 * @return
+	 */
+	private static SootField resolveField(SootClass cls, String fieldName, Type fieldType) {
+		Set<SootClass> visited = new HashSet<SootClass>();
+
+		for (SootClass c = cls; c != null; c = c.hasSuperclass() ? c.getSuperclass() : null) {
+			SootField field = findField(c, fieldName, fieldType, visited);
+			if (field != null) {
+				return field;
+			}
+		}
+
+		return Scene.v().makeFieldRef(cls, fieldName, fieldType, false).resolve();
+	}
+
+	/**
+	 * Find the field with the given name and type in the given class or its
+	 * superinterfaces, or null if there is none.
+	 * 
+	 * @param cls
+	 * @param fieldName
+	 * @param fieldType
+	 * @param visited
+	 * @return
+	 */
+	private static SootField findField(SootClass cls, String fieldName, Type fieldType, Set<SootClass> visited) {
+		if (!visited.add(cls)) {
+			return null;
+		} else if (cls.declaresField(fieldName, fieldType)) {
+			return cls.getField(fieldName, fieldType);
+		}
+
+		for (SootClass superInterface : cls.getInterfaces()) {
+			SootField field = findField(superInterface, fieldName, fieldType, visited);
+			if (field != null) {
+				return field;
+			}
+		}
+
+		return null;
+	}
+}
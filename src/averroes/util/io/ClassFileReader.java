@@ -0,0 +1,659 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Karim Ali and Ondřej Lhoták.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Karim Ali - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+package averroes.util.io;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A lightweight reader for class files. It only indexes the constant pool when
+ * it is created, everything else (e.g., the class header or the members) is
+ * read on demand directly from the underlying bytes. Method bodies and
+ * attributes are never parsed.
+ * 
+ * @author karim
+ * 
+ */
+public class ClassFileReader {
+
+	public static final int MAGIC = 0xCAFEBABE;
+
+	public static final int CONSTANT_UTF8 = 1;
+	public static final int CONSTANT_INTEGER = 3;
+	public static final int CONSTANT_FLOAT = 4;
+	public static final int CONSTANT_LONG = 5;
+	public static final int CONSTANT_DOUBLE = 6;
+	public static final int CONSTANT_CLASS = 7;
+	public static final int CONSTANT_STRING = 8;
+	public static final int CONSTANT_FIELDREF = 9;
+	public static final int CONSTANT_METHODREF = 10;
+	public static final int CONSTANT_INTERFACE_METHODREF = 11;
+	public static final int CONSTANT_NAME_AND_TYPE = 12;
+	public static final int CONSTANT_METHOD_HANDLE = 15;
+	public static final int CONSTANT_METHOD_TYPE = 16;
+	public static final int CONSTANT_DYNAMIC = 17;
+	public static final int CONSTANT_INVOKE_DYNAMIC = 18;
+	public static final int CONSTANT_MODULE = 19;
+	public static final int CONSTANT_PACKAGE = 20;
+
+	private ByteBuffer buffer;
+	private int[] offsets;
+	private int headerOffset;
+
+	/**
+	 * Construct a new class file reader for the given class file bytes.
+	 * 
+	 * @param bytes
+	 * @throws IOException
+	 */
+	public ClassFileReader(byte[] bytes) throws IOException {
+		this(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Construct a new class file reader for the class file that starts at the
+	 * current position of the given buffer.
+	 * 
+	 * @param buffer
+	 * @throws IOException
+	 */
+	public ClassFileReader(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer.slice();
+		try {
+			if (this.buffer.getInt(0) != MAGIC) {
+				throw new IOException("invalid class file magic number");
+			}
+			readConstantPool();
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("truncated class file", e);
+		}
+	}
+
+	/**
+	 * The number of entries in the constant pool, as recorded in the class
+	 * file (i.e., the first valid index is 1).
+	 * 
+	 * @return
+	 */
+	public int getConstantPoolCount() {
+		return offsets.length;
+	}
+
+	/**
+	 * The tag of the constant pool entry at the given index, or 0 for the
+	 * unusable slots that follow long and double constants.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public int getTag(int index) {
+		return offsets[index] == 0 ? 0 : u8(offsets[index]);
+	}
+
+	/**
+	 * The offset of the constant pool entry at the given index (i.e., where its
+	 * tag is) in the class file.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public int getOffset(int index) {
+		return offsets[index];
+	}
+
+	/**
+	 * Get the underlying bytes of the class file.
+	 * 
+	 * @return
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Get the string value of the CONSTANT_Utf8 entry at the given index.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public String getUtf8(int index) {
+		return readUtf8(buffer, offsets[index] + 1);
+	}
+
+	/**
+	 * Get the internal name (e.g., java/lang/Object) of the CONSTANT_Class
+	 * entry at the given index.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public String getInternalClassName(int index) {
+		return getUtf8(u16(offsets[index] + 1));
+	}
+
+	/**
+	 * Get the descriptor of the CONSTANT_NameAndType or CONSTANT_MethodType
+	 * entry at the given index.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public String getDescriptor(int index) {
+		int offset = offsets[index];
+		return getUtf8(u16(u8(offset) == CONSTANT_NAME_AND_TYPE ? offset + 3 : offset + 1));
+	}
+
+	/**
+	 * Get the internal name of the class of the CONSTANT_Fieldref,
+	 * CONSTANT_Methodref, or CONSTANT_InterfaceMethodref entry at the given
+	 * index.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public String getMemberClassName(int index) {
+		return getUtf8(getMemberClassNameIndex(index));
+	}
+
+	/**
+	 * Get the name of the CONSTANT_Fieldref, CONSTANT_Methodref,
+	 * CONSTANT_InterfaceMethodref, or CONSTANT_InvokeDynamic entry at the
+	 * given index.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public String getMemberName(int index) {
+		return getUtf8(getMemberNameIndex(index));
+	}
+
+	/**
+	 * Get the descriptor of the CONSTANT_Fieldref, CONSTANT_Methodref,
+	 * CONSTANT_InterfaceMethodref, or CONSTANT_InvokeDynamic entry at the
+	 * given index.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public String getMemberDescriptor(int index) {
+		return getUtf8(getMemberDescriptorIndex(index));
+	}
+
+	/**
+	 * Get the index of the CONSTANT_Utf8 entry that holds the internal name of
+	 * the class of the CONSTANT_Fieldref, CONSTANT_Methodref, or
+	 * CONSTANT_InterfaceMethodref entry at the given index.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public int getMemberClassNameIndex(int index) {
+		return u16(offsets[u16(offsets[index] + 1)] + 1);
+	}
+
+	/**
+	 * Get the index of the CONSTANT_Utf8 entry that holds the name of the
+	 * CONSTANT_Fieldref, CONSTANT_Methodref, CONSTANT_InterfaceMethodref, or
+	 * CONSTANT_InvokeDynamic entry at the given index.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public int getMemberNameIndex(int index) {
+		return u16(offsets[u16(offsets[index] + 3)] + 1);
+	}
+
+	/**
+	 * Get the index of the CONSTANT_Utf8 entry that holds the descriptor of
+	 * the CONSTANT_Fieldref, CONSTANT_Methodref, CONSTANT_InterfaceMethodref,
+	 * or CONSTANT_InvokeDynamic entry at the given index.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public int getMemberDescriptorIndex(int index) {
+		return u16(offsets[u16(offsets[index] + 3)] + 3);
+	}
+
+	/**
+	 * Get the string value of the CONSTANT_String entry at the given index.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public String getString(int index) {
+		return getUtf8(u16(offsets[index] + 1));
+	}
+
+	/**
+	 * Get the index of the member referenced by the CONSTANT_MethodHandle
+	 * entry at the given index.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public int getMethodHandleReference(int index) {
+		return u16(offsets[index] + 2);
+	}
+
+	/**
+	 * The access flags of this class.
+	 * 
+	 * @return
+	 */
+	public int getAccessFlags() {
+		return u16(headerOffset);
+	}
+
+	/**
+	 * The name of this class (e.g., java.lang.Object).
+	 * 
+	 * @return
+	 */
+	public String getClassName() {
+		return getInternalClassName(u16(headerOffset + 2)).replace('/', '.');
+	}
+
+	/**
+	 * The name of the super class of this class, or null if it has none (i.e.,
+	 * java.lang.Object and module-info).
+	 * 
+	 * @return
+	 */
+	public String getSuperClassName() {
+		int index = u16(headerOffset + 4);
+		return index == 0 ? null : getInternalClassName(index).replace('/', '.');
+	}
+
+	/**
+	 * The names of the interfaces directly implemented by this class.
+	 * 
+	 * @return
+	 */
+	public List<String> getInterfaceNames() {
+		int count = u16(headerOffset + 6);
+		List<String> result = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			result.add(getInternalClassName(u16(headerOffset + 8 + 2 * i)).replace('/', '.'));
+		}
+		return result;
+	}
+
+	/**
+	 * The fields declared in this class.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public List<Member> getFields() throws IOException {
+		return readMembers(fieldsOffset(), null);
+	}
+
+	/**
+	 * The methods declared in this class.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public List<Member> getMethods() throws IOException {
+		int[] methodsOffset = new int[1];
+		readMembers(fieldsOffset(), methodsOffset);
+		return readMembers(methodsOffset[0], null);
+	}
+
+	/**
+	 * The names of the classes in the throws clauses of the methods declared
+	 * in this class.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public List<String> getExceptionNames() throws IOException {
+		int[] methodsOffset = new int[1];
+		readMembers(fieldsOffset(), methodsOffset);
+		List<String> result = new ArrayList<String>();
+
+		try {
+			int count = u16(methodsOffset[0]);
+			int position = methodsOffset[0] + 2;
+
+			for (int i = 0; i < count; i++) {
+				int attributes = u16(position + 6);
+				position += 8;
+				for (int j = 0; j < attributes; j++) {
+					if (getUtf8(u16(position)).equals("Exceptions")) {
+						int exceptions = u16(position + 6);
+						for (int k = 0; k < exceptions; k++) {
+							result.add(getInternalClassName(u16(position + 8 + 2 * k)).replace('/', '.'));
+						}
+					}
+					position += 6 + buffer.getInt(position + 2);
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("truncated class file", e);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Get the names of the classes that appear in the given field or method
+	 * descriptor (e.g., java.lang.String for ([Ljava/lang/String;I)V).
+	 * 
+	 * @param descriptor
+	 * @return
+	 */
+	public static List<String> getDescriptorClassNames(String descriptor) {
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < descriptor.length(); i++) {
+			if (descriptor.charAt(i) == 'L') {
+				int end = descriptor.indexOf(';', i);
+				if (end < 0) {
+					break;
+				}
+				result.add(descriptor.substring(i + 1, end).replace('/', '.'));
+				i = end;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Read the name of the class (e.g., java.lang.Object) in the class file
+	 * that the given stream starts with. Only the constant pool and the
+	 * this_class item are read from the stream, the rest of the class file is
+	 * never touched.
+	 * 
+	 * @param stream
+	 * @return
+	 * @throws IOException
+	 */
+	public static String readClassName(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("invalid class file magic number");
+			}
+			in.readUnsignedShort(); // minor_version
+			in.readUnsignedShort(); // major_version
+
+			// Only keep the strings and the class entries, we do not know yet
+			// which one of them is this class
+			int count = in.readUnsignedShort();
+			byte[][] strings = new byte[count][];
+			int[] classes = new int[count];
+
+			for (int i = 1; i < count; i++) {
+				int tag = in.readUnsignedByte();
+				switch (tag) {
+				case CONSTANT_UTF8:
+					int length = in.readUnsignedShort();
+					strings[i] = new byte[2 + length];
+					strings[i][0] = (byte) (length >> 8);
+					strings[i][1] = (byte) length;
+					in.readFully(strings[i], 2, length);
+					break;
+				case CONSTANT_CLASS:
+					classes[i] = in.readUnsignedShort();
+					break;
+				case CONSTANT_STRING:
+				case CONSTANT_METHOD_TYPE:
+				case CONSTANT_MODULE:
+				case CONSTANT_PACKAGE:
+					skip(in, 2);
+					break;
+				case CONSTANT_METHOD_HANDLE:
+					skip(in, 3);
+					break;
+				case CONSTANT_INTEGER:
+				case CONSTANT_FLOAT:
+				case CONSTANT_FIELDREF:
+				case CONSTANT_METHODREF:
+				case CONSTANT_INTERFACE_METHODREF:
+				case CONSTANT_NAME_AND_TYPE:
+				case CONSTANT_DYNAMIC:
+				case CONSTANT_INVOKE_DYNAMIC:
+					skip(in, 4);
+					break;
+				case CONSTANT_LONG:
+				case CONSTANT_DOUBLE:
+					// These take two slots in the constant pool
+					skip(in, 8);
+					i++;
+					break;
+				default:
+					throw new IOException("invalid constant pool tag " + tag + " at index " + i);
+				}
+			}
+
+			in.readUnsignedShort(); // access_flags
+			int thisClass = in.readUnsignedShort();
+			byte[] name = strings[classes[thisClass]];
+			if (name == null) {
+				throw new IOException("invalid this_class index " + thisClass);
+			}
+			return readUtf8(ByteBuffer.wrap(name), 0).replace('/', '.');
+		} catch (EOFException | IndexOutOfBoundsException e) {
+			throw new IOException("truncated or invalid class file", e);
+		}
+	}
+
+	/**
+	 * Read a string in the modified UTF-8 format used by class files (i.e., an
+	 * unsigned 16-bit length followed by the encoded characters) at the given
+	 * position of the buffer.
+	 * 
+	 * @param buffer
+	 * @param position
+	 * @return
+	 */
+	public static String readUtf8(ByteBuffer buffer, int position) {
+		int length = ((buffer.get(position) & 0xFF) << 8) | (buffer.get(position + 1) & 0xFF);
+		int end = position + 2 + length;
+		char[] chars = new char[length];
+		int count = 0;
+
+		for (int i = position + 2; i < end;) {
+			int b = buffer.get(i++) & 0xFF;
+			if (b < 0x80) {
+				chars[count++] = (char) b;
+			} else if ((b & 0xE0) == 0xC0) {
+				chars[count++] = (char) (((b & 0x1F) << 6) | (buffer.get(i++) & 0x3F));
+			} else {
+				chars[count++] = (char) (((b & 0x0F) << 12) | ((buffer.get(i++) & 0x3F) << 6) | (buffer.get(i++) & 0x3F));
+			}
+		}
+
+		return new String(chars, 0, count);
+	}
+
+	/**
+	 * Record the offset of each entry in the constant pool.
+	 * 
+	 * @throws IOException
+	 */
+	private void readConstantPool() throws IOException {
+		int count = u16(8);
+		offsets = new int[count];
+		int position = 10;
+
+		for (int i = 1; i < count; i++) {
+			offsets[i] = position;
+			int tag = u8(position);
+			switch (tag) {
+			case CONSTANT_UTF8:
+				position += 3 + u16(position + 1);
+				break;
+			case CONSTANT_CLASS:
+			case CONSTANT_STRING:
+			case CONSTANT_METHOD_TYPE:
+			case CONSTANT_MODULE:
+			case CONSTANT_PACKAGE:
+				position += 3;
+				break;
+			case CONSTANT_METHOD_HANDLE:
+				position += 4;
+				break;
+			case CONSTANT_INTEGER:
+			case CONSTANT_FLOAT:
+			case CONSTANT_FIELDREF:
+			case CONSTANT_METHODREF:
+			case CONSTANT_INTERFACE_METHODREF:
+			case CONSTANT_NAME_AND_TYPE:
+			case CONSTANT_DYNAMIC:
+			case CONSTANT_INVOKE_DYNAMIC:
+				position += 5;
+				break;
+			case CONSTANT_LONG:
+			case CONSTANT_DOUBLE:
+				// These take two slots in the constant pool
+				position += 9;
+				i++;
+				break;
+			default:
+				throw new IOException("invalid constant pool tag " + tag + " at index " + i);
+			}
+		}
+
+		headerOffset = position;
+	}
+
+	/**
+	 * The offset of the fields_count item of this class file.
+	 * 
+	 * @return
+	 */
+	private int fieldsOffset() {
+		return headerOffset + 8 + 2 * u16(headerOffset + 6);
+	}
+
+	/**
+	 * Read the fields or methods that start at the given offset. If end is not
+	 * null, the offset right after the members is stored in it.
+	 * 
+	 * @param offset
+	 * @param end
+	 * @return
+	 * @throws IOException
+	 */
+	private List<Member> readMembers(int offset, int[] end) throws IOException {
+		try {
+			int count = u16(offset);
+			List<Member> result = new ArrayList<Member>(count);
+			int position = offset + 2;
+
+			for (int i = 0; i < count; i++) {
+				int accessFlags = u16(position);
+				String name = getUtf8(u16(position + 2));
+				String descriptor = getUtf8(u16(position + 4));
+				result.add(new Member(accessFlags, name, descriptor));
+
+				int attributes = u16(position + 6);
+				position += 8;
+				for (int j = 0; j < attributes; j++) {
+					position += 6 + buffer.getInt(position + 2);
+				}
+			}
+
+			if (end != null) {
+				end[0] = position;
+			}
+			return Collections.unmodifiableList(result);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("truncated class file", e);
+		}
+	}
+
+	/**
+	 * Skip exactly the given number of bytes of the given stream.
+	 * 
+	 * @param in
+	 * @param count
+	 * @throws IOException
+	 */
+	private static void skip(DataInputStream in, int count) throws IOException {
+		if (in.skipBytes(count) != count) {
+			throw new EOFException();
+		}
+	}
+
+	private int u8(int position) {
+		return buffer.get(position) & 0xFF;
+	}
+
+	private int u16(int position) {
+		return buffer.getShort(position) & 0xFFFF;
+	}
+
+	/**
+	 * A field or a method declared in a class file.
+	 * 
+	 * @author karim
+	 * 
+	 */
+	public static class Member {
+		private int accessFlags;
+		private String name;
+		private String descriptor;
+
+		/**
+		 * Construct a new member.
+		 * 
+		 * @param accessFlags
+		 * @param name
+		 * @param descriptor
+		 */
+		public Member(int accessFlags, String name, String descriptor) {
+			this.accessFlags = accessFlags;
+			this.name = name;
+			this.descriptor = descriptor;
+		}
+
+		/**
+		 * The access flags of this member.
+		 * 
+		 * @return
+		 */
+		public int getAccessFlags() {
+			return accessFlags;
+		}
+
+		/**
+		 * The name of this member.
+		 * 
+		 * @return
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * The descriptor of this member (e.g., (Ljava/lang/String;)V).
+		 * 
+		 * @return
+		 */
+		public String getDescriptor() {
+			return descriptor;
+		}
+
+		@Override
+		public String toString() {
+			return name + descriptor;
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Karim Ali and Ondřej Lhoták.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Karim Ali - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+package averroes.util.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A scanner for the constant pools of the class files in an archive (e.g., the
+ * organized application JAR file). The archive is memory-mapped, and the class
+ * files that are stored uncompressed are read in place. Only the offsets of the
+ * constant pool entries are recorded for each class file, so visiting an entry
+ * allocates nothing until the visitor asks for one of its strings. The class
+ * files can be scanned by several threads, each with its own visitor.
+ * 
+ * @author karim
+ * 
+ */
+public class ConstantPoolScanner implements Closeable {
+
+	private RawZipFile archive;
+	private ByteBuffer mapped;
+
+	/**
+	 * Open the given archive for scanning.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public ConstantPoolScanner(File file) throws IOException {
+		archive = new RawZipFile(file);
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			// The mapping remains valid after the channel is closed. Archives
+			// that are too large to map are read entry by entry instead.
+			if (channel.size() <= Integer.MAX_VALUE) {
+				mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+		} catch (IOException e) {
+			archive.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Visit the CONSTANT_Fieldref, CONSTANT_Methodref,
+	 * CONSTANT_InterfaceMethodref, CONSTANT_String, CONSTANT_MethodHandle, and
+	 * CONSTANT_InvokeDynamic entries in the constant pools of all the class
+	 * files in the archive.
+	 * 
+	 * @param visitor
+	 * @throws IOException
+	 */
+	public void scan(Visitor visitor) throws IOException {
+		for (RawZipEntry entry : getClassEntries()) {
+			scan(entry, visitor);
+		}
+	}
+
+	/**
+	 * Visit the constant pools of all the class files in the archive using the
+	 * given number of threads. Each thread gets its own visitor from the given
+	 * supplier, so the visitors do not have to be thread-safe. The visitors are
+	 * returned once all the class files are scanned.
+	 * 
+	 * @param visitors
+	 * @param threads
+	 * @return
+	 * @throws IOException
+	 */
+	public <V extends Visitor> List<V> scan(Supplier<V> visitors, int threads) throws IOException {
+		List<RawZipEntry> entries = getClassEntries();
+		if (threads <= 1) {
+			V visitor = visitors.get();
+			scan(visitor);
+			return Collections.singletonList(visitor);
+		}
+
+		// The threads take the next class file to scan from a shared counter
+		AtomicInteger next = new AtomicInteger();
+		List<Callable<V>> tasks = new ArrayList<Callable<V>>();
+		for (int i = 0; i < threads; i++) {
+			tasks.add(() -> {
+				V visitor = visitors.get();
+				int index;
+				while ((index = next.getAndIncrement()) < entries.size()) {
+					scan(entries.get(index), visitor);
+				}
+				return visitor;
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<V> result = new ArrayList<V>();
+			for (Future<V> future : executor.invokeAll(tasks)) {
+				result.add(future.get());
+			}
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while scanning " + archive.getFile(), e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		archive.close();
+	}
+
+	/**
+	 * Get the class file entries of the archive.
+	 * 
+	 * @return
+	 */
+	private List<RawZipEntry> getClassEntries() {
+		List<RawZipEntry> result = new ArrayList<RawZipEntry>();
+		for (RawZipEntry entry : archive.entries()) {
+			if (entry.getName().endsWith(".class")) {
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Visit the constant pool of the class file of the given entry.
+	 * 
+	 * @param entry
+	 * @param visitor
+	 * @throws IOException
+	 */
+	private void scan(RawZipEntry entry, Visitor visitor) throws IOException {
+		ClassFileReader cls = read(entry);
+		if (!visitor.visitClass(cls)) {
+			return;
+		}
+
+		for (int i = 1; i < cls.getConstantPoolCount(); i++) {
+			switch (cls.getTag(i)) {
+			case ClassFileReader.CONSTANT_FIELDREF:
+			case ClassFileReader.CONSTANT_METHODREF:
+			case ClassFileReader.CONSTANT_INTERFACE_METHODREF:
+			case ClassFileReader.CONSTANT_STRING:
+			case ClassFileReader.CONSTANT_METHOD_HANDLE:
+			case ClassFileReader.CONSTANT_INVOKE_DYNAMIC:
+				visitor.visitEntry(cls, i);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Read the class file of the given entry. An uncompressed class file is
+	 * read directly from the mapped archive, a compressed one is inflated
+	 * first.
+	 * 
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	private ClassFileReader read(RawZipEntry entry) throws IOException {
+		if (mapped != null && entry.getMethod() == RawZipEntry.STORED) {
+			ByteBuffer buffer = mapped.duplicate();
+			int offset = (int) archive.getDataOffset(entry);
+			buffer.limit(offset + (int) entry.getSize());
+			buffer.position(offset);
+			return new ClassFileReader(buffer);
+		}
+
+		return new ClassFileReader(archive.readData(entry));
+	}
+
+	/**
+	 * A visitor for the constant pool entries found by a
+	 * {@link ConstantPoolScanner}.
+	 * 
+	 * @author karim
+	 * 
+	 */
+	public interface Visitor {
+
+		/**
+		 * Called before the constant pool of the given class file is visited.
+		 * Returns false to skip the class file.
+		 * 
+		 * @param cls
+		 * @return
+		 */
+		default boolean visitClass(ClassFileReader cls) {
+			return true;
+		}
+
+		/**
+		 * Called for every constant pool entry of interest. The tag of the
+		 * entry is cls.getTag(index).
+		 * 
+		 * @param cls
+		 * @param index
+		 * @throws IOException
+		 */
+		void visitEntry(ClassFileReader cls, int index) throws IOException;
+	}
+}
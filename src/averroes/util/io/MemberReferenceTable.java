@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Karim Ali and Ondřej Lhoták.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Karim Ali - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+package averroes.util.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import averroes.util.MemberReference;
+
+/**
+ * A set of the distinct member references found in the constant pools of
+ * class files. The references are compared on the raw CONSTANT_Utf8 bytes of
+ * their class names, names, and descriptors, straight from the class file
+ * buffer, so adding a reference that is already in the set allocates nothing.
+ * Only the distinct references are copied, and they are decoded to
+ * {@link MemberReference}s once all the class files are visited.
+ * 
+ * @author karim
+ * 
+ */
+public class MemberReferenceTable {
+
+	private byte[][] keys = new byte[64][];
+	private int[] hashes = new int[64];
+	private int size = 0;
+
+	/**
+	 * Add the member referenced by the CONSTANT_Fieldref, CONSTANT_Methodref,
+	 * or CONSTANT_InterfaceMethodref entry at the given index of the given
+	 * class file.
+	 * 
+	 * @param cls
+	 * @param index
+	 */
+	public void add(ClassFileReader cls, int index) {
+		ByteBuffer buffer = cls.getBuffer();
+		int classNameOffset = cls.getOffset(cls.getMemberClassNameIndex(index)) + 1;
+		int nameOffset = cls.getOffset(cls.getMemberNameIndex(index)) + 1;
+		int descriptorOffset = cls.getOffset(cls.getMemberDescriptorIndex(index)) + 1;
+
+		int hash = hash(buffer, classNameOffset, 0);
+		hash = hash(buffer, nameOffset, hash);
+		hash = hash(buffer, descriptorOffset, hash);
+
+		int mask = keys.length - 1;
+		int slot = hash & mask;
+		while (keys[slot] != null) {
+			if (hashes[slot] == hash && matches(keys[slot], buffer, classNameOffset, nameOffset, descriptorOffset)) {
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = copy(buffer, classNameOffset, nameOffset, descriptorOffset);
+		hashes[slot] = hash;
+		if (++size * 2 > keys.length) {
+			grow();
+		}
+	}
+
+	/**
+	 * Decode the distinct member references in this table.
+	 * 
+	 * @return
+	 */
+	public List<MemberReference> getReferences() {
+		List<MemberReference> result = new ArrayList<MemberReference>(size);
+		for (byte[] key : keys) {
+			if (key != null) {
+				ByteBuffer buffer = ByteBuffer.wrap(key);
+				int nameOffset = next(buffer, 0);
+				int descriptorOffset = next(buffer, nameOffset);
+
+				// An owner that starts with '[' is an array type, and members
+				// of array types are members of java.lang.Object (the same way
+				// DexUtils.getClassName maps them)
+				String className = "java.lang.Object";
+				if (key[2] != '[') {
+					className = ClassFileReader.readUtf8(buffer, 0).replace('/', '.');
+				}
+				result.add(new MemberReference(className, ClassFileReader.readUtf8(buffer, nameOffset),
+						ClassFileReader.readUtf8(buffer, descriptorOffset)));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Double the capacity of this table.
+	 */
+	private void grow() {
+		byte[][] oldKeys = keys;
+		int[] oldHashes = hashes;
+		keys = new byte[oldKeys.length * 2][];
+		hashes = new int[oldKeys.length * 2];
+
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				int slot = oldHashes[i] & mask;
+				while (keys[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				hashes[slot] = oldHashes[i];
+			}
+		}
+	}
+
+	/**
+	 * Mix the length and bytes of the string in the modified UTF-8 format at
+	 * the given position of the buffer into the given hash.
+	 * 
+	 * @param buffer
+	 * @param position
+	 * @param hash
+	 * @return
+	 */
+	private static int hash(ByteBuffer buffer, int position, int hash) {
+		int end = next(buffer, position);
+		for (int i = position; i < end; i++) {
+			hash = 31 * hash + buffer.get(i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Check if the given key holds the three strings at the given positions of
+	 * the buffer.
+	 * 
+	 * @param key
+	 * @param buffer
+	 * @param classNameOffset
+	 * @param nameOffset
+	 * @param descriptorOffset
+	 * @return
+	 */
+	private static boolean matches(byte[] key, ByteBuffer buffer, int classNameOffset, int nameOffset,
+			int descriptorOffset) {
+		int position = matches(key, 0, buffer, classNameOffset);
+		position = matches(key, position, buffer, nameOffset);
+		position = matches(key, position, buffer, descriptorOffset);
+		return position == key.length;
+	}
+
+	/**
+	 * Check if the given key holds the string at the given position of the
+	 * buffer, starting at the given position of the key.
+	 * 
+	 * @param key
+	 * @param position
+	 * @param buffer
+	 * @param offset
+	 * @return the position right after the string in the key, or -1 if the key
+	 *         does not hold the string
+	 */
+	private static int matches(byte[] key, int position, ByteBuffer buffer, int offset) {
+		int end = next(buffer, offset);
+		if (position < 0 || position + end - offset > key.length) {
+			return -1;
+		}
+		for (int i = offset; i < end; i++) {
+			if (key[position++] != buffer.get(i)) {
+				return -1;
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Copy the three strings at the given positions of the buffer, with their
+	 * lengths, into a new key.
+	 * 
+	 * @param buffer
+	 * @param classNameOffset
+	 * @param nameOffset
+	 * @param descriptorOffset
+	 * @return
+	 */
+	private static byte[] copy(ByteBuffer buffer, int classNameOffset, int nameOffset, int descriptorOffset) {
+		int classNameLength = next(buffer, classNameOffset) - classNameOffset;
+		int nameLength = next(buffer, nameOffset) - nameOffset;
+		int descriptorLength = next(buffer, descriptorOffset) - descriptorOffset;
+
+		byte[] key = new byte[classNameLength + nameLength + descriptorLength];
+		for (int i = 0; i < classNameLength; i++) {
+			key[i] = buffer.get(classNameOffset + i);
+		}
+		for (int i = 0; i < nameLength; i++) {
+			key[classNameLength + i] = buffer.get(nameOffset + i);
+		}
+		for (int i = 0; i < descriptorLength; i++) {
+			key[classNameLength + nameLength + i] = buffer.get(descriptorOffset + i);
+		}
+		return key;
+	}
+
+	/**
+	 * The position right after the string in the modified UTF-8 format (i.e.,
+	 * an unsigned 16-bit length followed by the encoded characters) at the
+	 * given position of the buffer.
+	 * 
+	 * @param buffer
+	 * @param position
+	 * @return
+	 */
+	private static int next(ByteBuffer buffer, int position) {
+		return position + 2 + (buffer.getShort(position) & 0xFFFF);
+	}
+}
@@ -52,6 +52,16 @@ public class Paths {
 		return new File(AverroesOptions.getOutputDirectory(), "placeholder-lib.jar");
 	}
 
+	/**
+	 * The path to the manifest that describes the contents of the placeholder
+	 * library JAR file. It is only used in incremental mode.
+	 * 
+	 * @return
+	 */
+	public static File placeholderLibraryManifestFile() {
+		return new File(AverroesOptions.getOutputDirectory(), "placeholder-lib.manifest");
+	}
+
 	/**
 	 * The path to the JAR file that contains the single file averroes.Library
 	 * 
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Karim Ali and Ondřej Lhoták.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Karim Ali - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+package averroes.util.io;
+
+/**
+ * An entry in the central directory of a ZIP archive. Unlike
+ * {@link java.util.zip.ZipEntry}, this entry also knows where its local header
+ * starts in the archive, which allows copying its compressed data as is.
+ * 
+ * @author karim
+ * 
+ */
+public class RawZipEntry {
+
+	public static final int STORED = 0;
+	public static final int DEFLATED = 8;
+
+	private String name;
+	private int flags;
+	private int method;
+	private long dosTime;
+	private long crc;
+	private long compressedSize;
+	private long size;
+	private long localHeaderOffset;
+
+	/**
+	 * Construct a new raw ZIP entry.
+	 * 
+	 * @param name
+	 * @param flags
+	 * @param method
+	 * @param dosTime
+	 * @param crc
+	 * @param compressedSize
+	 * @param size
+	 * @param localHeaderOffset
+	 */
+	public RawZipEntry(String name, int flags, int method, long dosTime, long crc, long compressedSize, long size,
+			long localHeaderOffset) {
+		this.name = name;
+		this.flags = flags;
+		this.method = method;
+		this.dosTime = dosTime;
+		this.crc = crc;
+		this.compressedSize = compressedSize;
+		this.size = size;
+		this.localHeaderOffset = localHeaderOffset;
+	}
+
+	/**
+	 * The name of this entry.
+	 * 
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The general purpose bit flags of this entry.
+	 * 
+	 * @return
+	 */
+	public int getFlags() {
+		return flags;
+	}
+
+	/**
+	 * The compression method of this entry (e.g., {@link #STORED} or
+	 * {@link #DEFLATED}).
+	 * 
+	 * @return
+	 */
+	public int getMethod() {
+		return method;
+	}
+
+	/**
+	 * The last modification time of this entry in MS-DOS format.
+	 * 
+	 * @return
+	 */
+	public long getDosTime() {
+		return dosTime;
+	}
+
+	/**
+	 * The CRC-32 checksum of the uncompressed data of this entry.
+	 * 
+	 * @return
+	 */
+	public long getCrc() {
+		return crc;
+	}
+
+	/**
+	 * The size of the compressed data of this entry.
+	 * 
+	 * @return
+	 */
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	/**
+	 * The size of the uncompressed data of this entry.
+	 * 
+	 * @return
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * The offset of the local header of this entry in its archive.
+	 * 
+	 * @return
+	 */
+	public long getLocalHeaderOffset() {
+		return localHeaderOffset;
+	}
+
+	/**
+	 * Check if this entry is a directory.
+	 * 
+	 * @return
+	 */
+	public boolean isDirectory() {
+		return name.endsWith("/");
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Karim Ali and Ondřej Lhoták.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Karim Ali - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+package averroes.util.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only view of a ZIP archive that gives access to the compressed bytes
+ * of its entries. This is used to copy class files from one archive to another
+ * without inflating and deflating them again. The archive is read with
+ * positional reads only, so the same instance can be shared by multiple
+ * threads.
+ * 
+ * @author karim
+ * 
+ */
+public class RawZipFile implements Closeable {
+
+	static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	static final int END_HEADER_SIGNATURE = 0x06054b50;
+	static final int ZIP64_END_HEADER_SIGNATURE = 0x06064b50;
+	static final int ZIP64_END_LOCATOR_SIGNATURE = 0x07064b50;
+
+	static final int LOCAL_HEADER_SIZE = 30;
+	static final int CENTRAL_HEADER_SIZE = 46;
+	static final int END_HEADER_SIZE = 22;
+	static final int ZIP64_END_HEADER_SIZE = 56;
+	static final int ZIP64_END_LOCATOR_SIZE = 20;
+
+	static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+	static final int ZIP64_EXTRA_ID = 0x0001;
+
+	private File file;
+	private FileChannel channel;
+	private List<RawZipEntry> entries;
+
+	/**
+	 * Open the given ZIP archive and read its central directory.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public RawZipFile(File file) throws IOException {
+		this.file = file;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			entries = Collections.unmodifiableList(readCentralDirectory());
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Get the file of this archive.
+	 * 
+	 * @return
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Get the entries of this archive in the order of the central directory.
+	 * 
+	 * @return
+	 */
+	public List<RawZipEntry> entries() {
+		return entries;
+	}
+
+	/**
+	 * Get the offset where the (possibly compressed) data of the given entry
+	 * starts in this archive.
+	 * 
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public long getDataOffset(RawZipEntry entry) throws IOException {
+		ByteBuffer header = read(entry.getLocalHeaderOffset(), LOCAL_HEADER_SIZE);
+		if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+			throw new ZipException("invalid local header for entry " + entry.getName() + " in " + file);
+		}
+
+		int nameLength = u16(header, 26);
+		int extraLength = u16(header, 28);
+		return entry.getLocalHeaderOffset() + LOCAL_HEADER_SIZE + nameLength + extraLength;
+	}
+
+	/**
+	 * Read the compressed data of the given entry exactly as it is stored in
+	 * this archive.
+	 * 
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] readRawData(RawZipEntry entry) throws IOException {
+		if (entry.getCompressedSize() > Integer.MAX_VALUE) {
+			throw new ZipException("entry " + entry.getName() + " in " + file + " is too large");
+		}
+
+		ByteBuffer data = read(getDataOffset(entry), (int) entry.getCompressedSize());
+		return data.array();
+	}
+
+	/**
+	 * Read the uncompressed data of the given entry.
+	 * 
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] readData(RawZipEntry entry) throws IOException {
+		byte[] data = readRawData(entry);
+		if (entry.getMethod() == RawZipEntry.STORED) {
+			return data;
+		} else if (entry.getMethod() != RawZipEntry.DEFLATED) {
+			throw new ZipException("unsupported compression method " + entry.getMethod() + " for entry "
+					+ entry.getName() + " in " + file);
+		} else if (entry.getSize() > Integer.MAX_VALUE) {
+			throw new ZipException("entry " + entry.getName() + " in " + file + " is too large");
+		}
+
+		byte[] result = new byte[(int) entry.getSize()];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(data);
+			int count = 0;
+			while (count < result.length) {
+				int inflated = inflater.inflate(result, count, result.length - count);
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				count += inflated;
+			}
+			if (count != result.length) {
+				throw new ZipException("invalid compressed data for entry " + entry.getName() + " in " + file);
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("invalid compressed data for entry " + entry.getName() + " in " + file + ": "
+					+ e.getMessage());
+		} finally {
+			inflater.end();
+		}
+
+		return result;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Read the central directory of this archive.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	private List<RawZipEntry> readCentralDirectory() throws IOException {
+		long fileSize = channel.size();
+		int tailSize = (int) Math.min(fileSize, END_HEADER_SIZE + 0xFFFF);
+		long tailOffset = fileSize - tailSize;
+		ByteBuffer tail = read(tailOffset, tailSize);
+
+		// Find the end of central directory record, the archive comment might
+		// follow it
+		int end = -1;
+		for (int i = tailSize - END_HEADER_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_HEADER_SIGNATURE) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new ZipException("cannot find the end of central directory in " + file);
+		}
+
+		long count = u16(tail, end + 10);
+		long centralSize = u32(tail, end + 12);
+		long centralOffset = u32(tail, end + 16);
+
+		// Large archives store the real values in the ZIP64 end record
+		if (count == ZIP64_MAGIC_COUNT || centralSize == ZIP64_MAGIC || centralOffset == ZIP64_MAGIC) {
+			long locatorOffset = tailOffset + end - ZIP64_END_LOCATOR_SIZE;
+			if (locatorOffset >= 0) {
+				ByteBuffer locator = read(locatorOffset, ZIP64_END_LOCATOR_SIZE);
+				if (locator.getInt(0) == ZIP64_END_LOCATOR_SIGNATURE) {
+					ByteBuffer zip64End = read(locator.getLong(8), ZIP64_END_HEADER_SIZE);
+					if (zip64End.getInt(0) != ZIP64_END_HEADER_SIGNATURE) {
+						throw new ZipException("invalid ZIP64 end of central directory in " + file);
+					}
+					count = zip64End.getLong(32);
+					centralSize = zip64End.getLong(40);
+					centralOffset = zip64End.getLong(48);
+				}
+			}
+		}
+
+		if (centralSize > Integer.MAX_VALUE) {
+			throw new ZipException("central directory of " + file + " is too large");
+		}
+
+		ByteBuffer central = read(centralOffset, (int) centralSize);
+		List<RawZipEntry> result = new ArrayList<RawZipEntry>((int) Math.min(count, Integer.MAX_VALUE));
+		int position = 0;
+
+		for (long i = 0; i < count; i++) {
+			if (central.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+				throw new ZipException("invalid central directory header in " + file);
+			}
+
+			int flags = u16(central, position + 8);
+			int method = u16(central, position + 10);
+			long dosTime = u32(central, position + 12);
+			long crc = u32(central, position + 16);
+			long compressedSize = u32(central, position + 20);
+			long size = u32(central, position + 24);
+			int nameLength = u16(central, position + 28);
+			int extraLength = u16(central, position + 30);
+			int commentLength = u16(central, position + 32);
+			long localHeaderOffset = u32(central, position + 42);
+
+			String name = new String(central.array(), position + CENTRAL_HEADER_SIZE, nameLength,
+					StandardCharsets.UTF_8);
+
+			// The ZIP64 extended information has the real values of the fields
+			// that overflowed, in this exact order
+			int extra = position + CENTRAL_HEADER_SIZE + nameLength;
+			int extraEnd = extra + extraLength;
+			while (extra + 4 <= extraEnd) {
+				int id = u16(central, extra);
+				int length = u16(central, extra + 2);
+				if (id == ZIP64_EXTRA_ID) {
+					int field = extra + 4;
+					if (size == ZIP64_MAGIC) {
+						size = central.getLong(field);
+						field += 8;
+					}
+					if (compressedSize == ZIP64_MAGIC) {
+						compressedSize = central.getLong(field);
+						field += 8;
+					}
+					if (localHeaderOffset == ZIP64_MAGIC) {
+						localHeaderOffset = central.getLong(field);
+					}
+					break;
+				}
+				extra += 4 + length;
+			}
+
+			result.add(new RawZipEntry(name, flags, method, dosTime, crc, compressedSize, size, localHeaderOffset));
+			position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Read the given number of bytes at the given position of this archive.
+	 * 
+	 * @param position
+	 * @param length
+	 * @return a little-endian buffer backed by an array of exactly that length
+	 * @throws IOException
+	 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			int count = channel.read(buffer, position + buffer.position());
+			if (count < 0) {
+				throw new EOFException("unexpected end of " + file);
+			}
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Read an unsigned 16-bit value.
+	 * 
+	 * @param buffer
+	 * @param index
+	 * @return
+	 */
+	private static int u16(ByteBuffer buffer, int index) {
+		return buffer.getShort(index) & 0xFFFF;
+	}
+
+	/**
+	 * Read an unsigned 32-bit value.
+	 * 
+	 * @param buffer
+	 * @param index
+	 * @return
+	 */
+	private static long u32(ByteBuffer buffer, int index) {
+		return buffer.getInt(index) & 0xFFFFFFFFL;
+	}
+}
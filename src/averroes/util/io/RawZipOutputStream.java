@@ -0,0 +1,335 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Karim Ali and Ondřej Lhoták.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Karim Ali - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+package averroes.util.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * A ZIP archive writer that accepts entries whose data is already compressed.
+ * The data of such entries is written as is, along with the CRC-32 checksum and
+ * the sizes recorded for them in the source archive. Entries are always written
+ * with their sizes in the local header, so no data descriptors are needed.
+ * 
+ * @author karim
+ * 
+ */
+public class RawZipOutputStream implements Closeable {
+
+	private static final int VERSION = 20;
+	private static final int VERSION_ZIP64 = 45;
+	private static final int ENCRYPTED_FLAG = 0x1;
+	private static final int UTF8_FLAG = 0x800;
+	private static final int DEFLATE_OPTIONS_FLAGS = 0x6;
+
+	private OutputStream out;
+	private long written;
+	private List<CentralEntry> central;
+	private Set<String> names;
+	private boolean closed;
+
+	/**
+	 * Create a new raw ZIP output stream that writes to the given file.
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public RawZipOutputStream(String fileName) throws IOException {
+		out = new BufferedOutputStream(new FileOutputStream(fileName), 64 * 1024);
+		written = 0;
+		central = new ArrayList<CentralEntry>();
+		names = new HashSet<String>();
+		closed = false;
+	}
+
+	/**
+	 * Add an entry whose data is exactly as it was stored in its source
+	 * archive.
+	 * 
+	 * @param entry
+	 * @param data
+	 * @throws IOException
+	 */
+	public void putRawEntry(RawZipEntry entry, byte[] data) throws IOException {
+		if (data.length != entry.getCompressedSize()) {
+			throw new ZipException("unexpected compressed size for entry " + entry.getName());
+		} else if ((entry.getFlags() & ENCRYPTED_FLAG) != 0) {
+			throw new ZipException("encrypted entry " + entry.getName() + " cannot be copied");
+		} else if (entry.getMethod() != RawZipEntry.STORED && entry.getMethod() != RawZipEntry.DEFLATED) {
+			throw new ZipException("unsupported compression method " + entry.getMethod() + " for entry "
+					+ entry.getName());
+		}
+
+		// Keep the deflate options, drop the data descriptor bit
+		int flags = (entry.getFlags() & DEFLATE_OPTIONS_FLAGS) | UTF8_FLAG;
+		writeEntry(entry.getName(), flags, entry.getMethod(), entry.getDosTime(), entry.getCrc(), data,
+				entry.getSize());
+	}
+
+	/**
+	 * Add an entry with the given uncompressed contents. The contents are
+	 * deflated before they are written.
+	 * 
+	 * @param name
+	 * @param contents
+	 * @param time
+	 * @throws IOException
+	 */
+	public void putEntry(String name, byte[] contents, long time) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(contents);
+
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(contents.length / 2 + 64);
+		try {
+			deflater.setInput(contents);
+			deflater.finish();
+			byte[] buffer = new byte[8 * 1024];
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buffer);
+				compressed.write(buffer, 0, count);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		writeEntry(name, UTF8_FLAG, RawZipEntry.DEFLATED, toDosTime(time), crc.getValue(), compressed.toByteArray(),
+				contents.length);
+	}
+
+	/**
+	 * Write the central directory and close the underlying file.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+			long centralOffset = written;
+			for (CentralEntry entry : central) {
+				writeCentralHeader(entry);
+			}
+			long centralSize = written - centralOffset;
+
+			boolean zip64 = central.size() >= RawZipFile.ZIP64_MAGIC_COUNT
+					|| centralOffset >= RawZipFile.ZIP64_MAGIC || centralSize >= RawZipFile.ZIP64_MAGIC;
+			if (zip64) {
+				writeZip64End(centralOffset, centralSize);
+			}
+
+			ByteBuffer end = allocate(RawZipFile.END_HEADER_SIZE);
+			end.putInt(RawZipFile.END_HEADER_SIGNATURE);
+			end.putShort((short) 0);
+			end.putShort((short) 0);
+			end.putShort((short) Math.min(central.size(), RawZipFile.ZIP64_MAGIC_COUNT));
+			end.putShort((short) Math.min(central.size(), RawZipFile.ZIP64_MAGIC_COUNT));
+			end.putInt((int) Math.min(centralSize, RawZipFile.ZIP64_MAGIC));
+			end.putInt((int) Math.min(centralOffset, RawZipFile.ZIP64_MAGIC));
+			end.putShort((short) 0);
+			write(end);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write the local header and the data of an entry and remember it for the
+	 * central directory.
+	 * 
+	 * @param name
+	 * @param flags
+	 * @param method
+	 * @param dosTime
+	 * @param crc
+	 * @param data
+	 * @param size
+	 * @throws IOException
+	 */
+	private void writeEntry(String name, int flags, int method, long dosTime, long crc, byte[] data, long size)
+			throws IOException {
+		if (!names.add(name)) {
+			throw new ZipException("duplicate entry: " + name);
+		}
+		if (size >= RawZipFile.ZIP64_MAGIC) {
+			throw new ZipException("entry " + name + " is too large");
+		}
+
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		CentralEntry entry = new CentralEntry(nameBytes, flags, method, dosTime, crc, data.length, size, written);
+
+		ByteBuffer header = allocate(RawZipFile.LOCAL_HEADER_SIZE);
+		header.putInt(RawZipFile.LOCAL_HEADER_SIGNATURE);
+		header.putShort((short) VERSION);
+		header.putShort((short) flags);
+		header.putShort((short) method);
+		header.putInt((int) dosTime);
+		header.putInt((int) crc);
+		header.putInt(data.length);
+		header.putInt((int) size);
+		header.putShort((short) nameBytes.length);
+		header.putShort((short) 0);
+		write(header);
+		write(nameBytes);
+		write(data);
+
+		central.add(entry);
+	}
+
+	/**
+	 * Write the central directory header of the given entry. The offset of the
+	 * local header is moved to the ZIP64 extended information if it overflows.
+	 * 
+	 * @param entry
+	 * @throws IOException
+	 */
+	private void writeCentralHeader(CentralEntry entry) throws IOException {
+		boolean zip64 = entry.localHeaderOffset >= RawZipFile.ZIP64_MAGIC;
+
+		ByteBuffer header = allocate(RawZipFile.CENTRAL_HEADER_SIZE);
+		header.putInt(RawZipFile.CENTRAL_HEADER_SIGNATURE);
+		header.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+		header.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+		header.putShort((short) entry.flags);
+		header.putShort((short) entry.method);
+		header.putInt((int) entry.dosTime);
+		header.putInt((int) entry.crc);
+		header.putInt((int) entry.compressedSize);
+		header.putInt((int) entry.size);
+		header.putShort((short) entry.name.length);
+		header.putShort((short) (zip64 ? 12 : 0));
+		header.putShort((short) 0);
+		header.putShort((short) 0);
+		header.putShort((short) 0);
+		header.putInt(0);
+		header.putInt((int) (zip64 ? RawZipFile.ZIP64_MAGIC : entry.localHeaderOffset));
+		write(header);
+		write(entry.name);
+
+		if (zip64) {
+			ByteBuffer extra = allocate(12);
+			extra.putShort((short) RawZipFile.ZIP64_EXTRA_ID);
+			extra.putShort((short) 8);
+			extra.putLong(entry.localHeaderOffset);
+			write(extra);
+		}
+	}
+
+	/**
+	 * Write the ZIP64 end of central directory record and its locator.
+	 * 
+	 * @param centralOffset
+	 * @param centralSize
+	 * @throws IOException
+	 */
+	private void writeZip64End(long centralOffset, long centralSize) throws IOException {
+		long zip64EndOffset = written;
+
+		ByteBuffer end = allocate(RawZipFile.ZIP64_END_HEADER_SIZE);
+		end.putInt(RawZipFile.ZIP64_END_HEADER_SIGNATURE);
+		end.putLong(RawZipFile.ZIP64_END_HEADER_SIZE - 12);
+		end.putShort((short) VERSION_ZIP64);
+		end.putShort((short) VERSION_ZIP64);
+		end.putInt(0);
+		end.putInt(0);
+		end.putLong(central.size());
+		end.putLong(central.size());
+		end.putLong(centralSize);
+		end.putLong(centralOffset);
+		write(end);
+
+		ByteBuffer locator = allocate(RawZipFile.ZIP64_END_LOCATOR_SIZE);
+		locator.putInt(RawZipFile.ZIP64_END_LOCATOR_SIGNATURE);
+		locator.putInt(0);
+		locator.putLong(zip64EndOffset);
+		locator.putInt(1);
+		write(locator);
+	}
+
+	/**
+	 * Convert a Java time to the MS-DOS date and time format.
+	 * 
+	 * @param time
+	 * @return
+	 */
+	private static long toDosTime(long time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+
+		return ((year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21)
+				| (calendar.get(Calendar.DAY_OF_MONTH) << 16) | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+				| (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+	}
+
+	private static ByteBuffer allocate(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		write(buffer.array());
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		out.write(bytes);
+		written += bytes.length;
+	}
+
+	/**
+	 * The information about a written entry that goes in the central
+	 * directory.
+	 * 
+	 * @author karim
+	 * 
+	 */
+	private static class CentralEntry {
+		private byte[] name;
+		private int flags;
+		private int method;
+		private long dosTime;
+		private long crc;
+		private long compressedSize;
+		private long size;
+		private long localHeaderOffset;
+
+		private CentralEntry(byte[] name, int flags, int method, long dosTime, long crc, long compressedSize,
+				long size, long localHeaderOffset) {
+			this.name = name;
+			this.flags = flags;
+			this.method = method;
+			this.dosTime = dosTime;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+	}
+}
@@ -1,31 +1,35 @@
 package soot.coffi;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
-import org.jf.dexlib2.dexbacked.raw.FieldIdItem;
-import org.jf.dexlib2.dexbacked.raw.MethodIdItem;
-import org.jf.dexlib2.dexbacked.raw.RawDexFile;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
 
-import soot.ResolutionFailedException;
-import soot.asm.*;
-import soot.Scene;
 import soot.SootClass;
 import soot.SootField;
-import soot.SootFieldRef;
 import soot.SootMethod;
-import soot.Type;
 import averroes.android.SetupAndroid;
 import averroes.options.AverroesOptions;
 import averroes.soot.Hierarchy;
 import averroes.util.BytecodeUtils;
+import averroes.util.ClassNameAutomaton;
+import averroes.util.DexUtils;
+import averroes.util.MemberReference;
+import averroes.util.MemberResolutionCache;
+import averroes.util.io.ClassFileReader;
+import averroes.util.io.ConstantPoolScanner;
+import averroes.util.io.MemberReferenceTable;
+import averroes.util.io.Paths;
 
 /**
  * A class that holds the values of library methods and fields found in the
- * constant pool of application classes. The class is in this specific package
- * name because it accesses some package-private classes (e.g.,
- * {@link CONSTANT_Fieldref_info}.
+ * constant pool of application classes. The constant pools are read directly
+ * from the class files, and the members are resolved through the
+ * {@link averroes.util.MemberResolutionCache}.
  * 
  * @author karim
  * 
@@ -107,273 +111,121 @@ public class AverroesApplicationConstantPool {
 	 * Initialize the application constant pool.
 	 */
 	private void initialize() {
-		findApplicationClassesReferencedByName();
-		findLibraryMethodsInApplicationConstantPool();
-		findLibraryFieldsInApplicationConstantPool();
-	}
-
-	/**
-	 * Get the Coffi class corresponding to the given Soot class. From this coffi
-	 * class, we can get the constant pool and all the related info.
-	 * 
-	 * @param cls
-	 * @return
-	 */
-	private static ClassFile getCoffiClass(SootClass cls) {
-		SootMethod anyMethod = cls.methodIterator().next();
-		CoffiMethodSource methodSource = (CoffiMethodSource) anyMethod.getSource();
-		return methodSource.coffiClass;
-	}
-	
-
-	/**
-	 * Get the referenced library methods in an application class.
-	 * 
-	 * @param applicationClass
-	 * @return
-	 */
-	private Set<SootMethod> findLibraryMethodsInConstantPool(SootClass applicationClass) {
-		Set<SootMethod> result = new HashSet<SootMethod>();
-
-		/*
-		 * This is only useful if the application class has any methods. Some classes
-		 * will not have any methods in them, e.g., org.jfree.data.xml.DatasetTags which
-		 * is an interface that has some final constants only.
-		 */
-		if (applicationClass.getMethodCount() > 0) {
-			ClassFile coffiClass = getCoffiClass(applicationClass);
-			cp_info[] constantPool = coffiClass.constant_pool;
-
-			for (cp_info constantPoolEntry : constantPool) {
-				if (constantPoolEntry instanceof ICONSTANT_Methodref_info) {
-					ICONSTANT_Methodref_info methodInfo = (ICONSTANT_Methodref_info) constantPoolEntry;
-
-					// Get the method declaring class
-					CONSTANT_Class_info c = (CONSTANT_Class_info) constantPool[methodInfo.getClassIndex()];
-					String className = ((CONSTANT_Utf8_info) (constantPool[c.name_index])).convert();
-					className = className.replace('/', '.');
-					// TODO why is that?
-					if (className.charAt(0) == '[') {
-						className = "java.lang.Object";
-					}
-
-					// Get the method name, parameter types, and return type
-					CONSTANT_NameAndType_info i = (CONSTANT_NameAndType_info) constantPool[methodInfo
-							.getNameAndTypeIndex()];
-					String methodName = ((CONSTANT_Utf8_info) (constantPool[i.name_index])).convert();
-					String methodDescriptor = ((CONSTANT_Utf8_info) (constantPool[i.descriptor_index])).convert();
-					SootMethod method = BytecodeUtils.makeSootMethod(className, methodName, methodDescriptor);
-
-					// If the resolved method is in the library, add it to the
-					// result
-					if (hierarchy.isLibraryMethod(method)) {
-						result.add(method);
-					}
-				}
-			}
+		// If we're processing an android apk, process the global method and
+		// field constant pools
+		if (AverroesOptions.isAndroid()) {
+			libraryMethods.addAll(findLibraryMethodsInAndroidApplicationConstantPool());
+			libraryFields.addAll(findLibraryFieldsInAndroidApplicationConstantPool());
+		} else {
+			findReferencesInApplicationConstantPool();
 		}
-
-		return result;
 	}
 
 	/**
-	 * Find all the classes whose name is referenced in the constant pool of
-	 * application classes.
+	 * Find all the library methods and fields, and all the application classes
+	 * referenced by name, in the constant pool of application classes. The
+	 * constant pools are scanned directly from the class files in the
+	 * organized application JAR file, in one pass over the archive. This does
+	 * not depend on the method sources of Soot, so classes that do not have
+	 * any methods in them (e.g., org.jfree.data.xml.DatasetTags which is an
+	 * interface that has some final constants only) are scanned too.
 	 * 
-	 * @throws IOException
-	 */
-	private void findApplicationClassesReferencedByName() {
-		applicationClasses = new HashSet<SootClass>();
-
-		// If we're processing an android apk, process the global string
-		// constant pool
-		// if (Options.v().src_prec() == Options.src_prec_apk) {
-		// applicationClasses.addAll(findAndroidApplicationClassesReferencedByName());
-		// } else {
-		// Add the classes whose name appear in the constant pool of application
-		// classes
-		// TODO
-		// for (SootClass applicationClass : hierarchy.getApplicationClasses()) {
-		// applicationClasses.addAll(findApplicationClassesReferencedByName(applicationClass));
-		// }
-		// applicationClasses.forEach(System.out::println);
-		// System.out.println("averroes found " + substrings.size() +
-		// " possible class name substrings");
-		// substrings.forEach(System.out::println);
-		// System.out.println("-------------");
-		// classes.stream()
-		// .filter(c -> {
-		// if (substrings.stream().anyMatch(s -> c.getName().startsWith(s))
-		// && substrings.stream().anyMatch(s -> c.getName().endsWith(s))) {
-		// return true;
-		// } else {
-		// return false;
-		// }
-		// }).forEach(System.out::println);
-		// applicationClasses.addAll(classes
-		// .stream()
-		// .filter(c -> {
-		// if (substrings.stream().anyMatch(s -> c.getName().startsWith(s))
-		// && substrings.stream().anyMatch(s -> c.getName().endsWith(s))) {
-		// return true;
-		// } else {
-		// return false;
-		// }
-		// }).collect(Collectors.toSet()));
-		// }
-	}
-
-	/**
-	 * Get the classes referenced by name in the constant pool of an application
-	 * class.
+	 * The string constants are matched against the names of all the
+	 * application classes at once using a {@link ClassNameAutomaton}, so a
+	 * class name is found even if it is only part of a string constant (e.g.,
+	 * "com/foo/Bar.class").
 	 * 
-	 * @param applicationClass
+	 * In parallel mode, the class files are scanned by several threads, each
+	 * collecting the references it finds into its own sets. The Soot scene is
+	 * not thread-safe, so the merged references are then resolved by this
+	 * thread only.
 	 */
-	private Set<SootClass> findApplicationClassesReferencedByName(SootClass applicationClass) {
-		Set<SootClass> result = new HashSet<SootClass>();
-		// Set<SootClass> classes = new HashSet<SootClass>();
-		// Set<String> substrings = new HashSet<String>();
-
-		if (AverroesOptions.isAndroid()) {
-			return result;
+	private void findReferencesInApplicationConstantPool() {
+		List<String> applicationClassNames = new ArrayList<String>();
+		for (SootClass applicationClass : hierarchy.getApplicationClasses()) {
+			applicationClassNames.add(applicationClass.getName());
+		}
+		ClassNameAutomaton automaton = new ClassNameAutomaton(applicationClassNames);
+
+		List<ReferenceCollector> collectors;
+		try (ConstantPoolScanner scanner = new ConstantPoolScanner(Paths.organizedApplicationJarFile())) {
+			collectors = scanner.scan(() -> new ReferenceCollector(hierarchy, automaton),
+					AverroesOptions.getThreadCount());
+		} catch (IOException e) {
+			throw new RuntimeException("Could not scan the constant pools of the application classes", e);
 		}
 
-		/*
-		 * This is only useful if the application class has any methods. Some classes
-		 * will not have any methods in them, e.g., org.jfree.data.xml.DatasetTags which
-		 * is an interface that has some final constants only.
-		 */
-		if (applicationClass.getMethodCount() > 0) {
-			ClassFile coffiClass = getCoffiClass(applicationClass);
-			cp_info[] constantPool = coffiClass.constant_pool;
-
-			for (cp_info constantPoolEntry : constantPool) {
-				if (constantPoolEntry instanceof CONSTANT_String_info) {
-					CONSTANT_String_info stringInfo = (CONSTANT_String_info) constantPoolEntry;
-
-					// Get the class name
-					CONSTANT_Utf8_info s = (CONSTANT_Utf8_info) constantPool[stringInfo.string_index];
-					String className = s.convert();// .trim();
-
-					// if (className.length() > 2) {
-					// Set<SootClass> set =
-					// hierarchy.matchSubstrOfApplicationClass(className);
-					// if (!set.isEmpty()) {
-					// classes.addAll(set);
-					// substrings.add(className);
-					// }
-					// }
+		Set<MemberReference> methodReferences = new HashSet<MemberReference>();
+		Set<MemberReference> fieldReferences = new HashSet<MemberReference>();
+		Set<String> classNames = new HashSet<String>();
+		for (ReferenceCollector collector : collectors) {
+			methodReferences.addAll(collector.methodReferences.getReferences());
+			fieldReferences.addAll(collector.fieldReferences.getReferences());
+			classNames.addAll(collector.classNames);
+		}
 
-					if (hierarchy.isApplicationClass(className)) {
-						result.add(hierarchy.getClass(className));
-					}
-				}
+		// If the resolved member is in the library, add it to the result
+		for (MemberReference reference : methodReferences) {
+			SootMethod method = MemberResolutionCache.v().getMethod(reference);
+			if (hierarchy.isLibraryMethod(method)) {
+				libraryMethods.add(method);
 			}
+		}
 
-			/*
-			 * This filtering has to take place here (i.e., for each class separately).
-			 * Otherwise, we will collect a lot of class names that has substrings spanning
-			 * multiple class files which is both wrong and imprecise.
-			 */
-			// result.addAll(classes
-			// .stream()
-			// .filter(c -> {
-			// if (substrings.stream().anyMatch(s -> c.getName().startsWith(s))
-			// && substrings.stream().anyMatch(s -> c.getName().endsWith(s))) {
-			// return true;
-			// } else {
-			// return false;
-			// }
-			// }).collect(Collectors.toSet()));
-
+		for (MemberReference reference : fieldReferences) {
+			SootField field = MemberResolutionCache.v().getField(reference);
+			if (hierarchy.isLibraryField(field)) {
+				libraryFields.add(field);
+			}
 		}
 
-		return result;
+		for (String className : classNames) {
+			applicationClasses.add(hierarchy.getClass(className));
+		}
 	}
 
 	/**
-	 * Find all the library methods referenced from the constant pool of application
-	 * classes.
+	 * Get the library methods referenced in the dex files of the APK. The
+	 * method references are read as typed dexlib2 references, each distinct
+	 * reference is considered once, and the references to application classes
+	 * are filtered out before the Soot scene is consulted.
 	 * 
 	 * @return
 	 */
-	private void findLibraryMethodsInApplicationConstantPool() {
-		libraryMethods = new HashSet<SootMethod>();
+	private Set<SootMethod> findLibraryMethodsInAndroidApplicationConstantPool() {
+		Set<SootMethod> result = new HashSet<SootMethod>();
 
-		// If we're processing an android apk, process the global method
-		// constant pool
-		if (AverroesOptions.isAndroid()) {
-			libraryMethods.addAll(findLibraryMethodsInAndroidApplicationConstantPool());
-		} else {
-			// Add the library methods that appear in the constant pool of
-			// application classes
-			for (SootClass applicationClass : hierarchy.getApplicationClasses()) {
-				libraryMethods.addAll(findLibraryMethodsInConstantPool(applicationClass));
+		for (MethodReference reference : DexUtils.getMethodReferences(SetupAndroid.v().getRawDexFiles())) {
+			String className = DexUtils.getClassName(reference.getDefiningClass());
+			if (AverroesOptions.isLibraryClass(className)) {
+				result.add(BytecodeUtils.makeSootMethod(className, reference.getName(),
+						DexUtils.getDescriptor(reference)));
 			}
 		}
-		// }
+
+		return result;
 	}
 
 	/**
-	 * Get the referenced library fields in an application class.
+	 * Get the library fields referenced in the dex files of the APK. The field
+	 * references are read as typed dexlib2 references, and each distinct
+	 * reference is resolved once. A field referenced through an application
+	 * class might be inherited from a library class, so these references are
+	 * resolved too.
 	 * 
-	 * @param applicationClass
 	 * @return
 	 */
-	private Set<SootField> findLibraryFieldsInConstantPool(SootClass applicationClass) {
+	private Set<SootField> findLibraryFieldsInAndroidApplicationConstantPool() {
 		Set<SootField> result = new HashSet<SootField>();
 
-		/*
-		 * This is only useful if the application class has any methods. Some classes
-		 * will not have any methods in them, e.g., org.jfree.data.xml.DatasetTags which
-		 * is an interface that has some final constants only.
-		 */
-		if (applicationClass.getMethodCount() > 0) {
-			ClassFile coffiClass = getCoffiClass(applicationClass);
-			cp_info[] constantPool = coffiClass.constant_pool;
-
-			for (cp_info constantPoolEntry : constantPool) {
-				if (constantPoolEntry instanceof CONSTANT_Fieldref_info) {
-					CONSTANT_Fieldref_info fieldInfo = (CONSTANT_Fieldref_info) constantPoolEntry;
-
-					// Get the field declaring class
-					CONSTANT_Class_info c = (CONSTANT_Class_info) constantPool[fieldInfo.class_index];
-					String className = ((CONSTANT_Utf8_info) (constantPool[c.name_index])).convert();
-					className = className.replace('/', '.');
-					// TODO why is that?
-					if (className.charAt(0) == '[') {
-						className = "java.lang.Object";
-					}
-					SootClass cls = Scene.v().getSootClass(className);
-
-					// Get the field name, and type
-					CONSTANT_NameAndType_info i = (CONSTANT_NameAndType_info) constantPool[fieldInfo.name_and_type_index];
-					String fieldName = ((CONSTANT_Utf8_info) (constantPool[i.name_index])).convert();
-					String fieldDescriptor = ((CONSTANT_Utf8_info) (constantPool[i.descriptor_index])).convert();
-					Type fieldType = Util.v().jimpleTypeOfFieldDescriptor(fieldDescriptor);
-
-					// Get the field ref and resolve it to a Soot field
-					SootFieldRef fieldRef = Scene.v().makeFieldRef(cls, fieldName, fieldType, false);
-					SootField field;
-
-					/*
-					 * We have to do this ugly code. Try first and see if the field is not static.
-					 * If it is static, then create a new fieldRef in the catch and resolve it again
-					 * with isStatic = true.
-					 */
-					try {
-						field = fieldRef.resolve();
-					} catch (ResolutionFailedException e) {
-						fieldRef = Scene.v().makeFieldRef(cls, fieldName, fieldType, true);
-					}
-					field = fieldRef.resolve();
+		for (FieldReference reference : DexUtils.getFieldReferences(SetupAndroid.v().getRawDexFiles())) {
+			SootField field = BytecodeUtils.makeSootField(DexUtils.getClassName(reference.getDefiningClass()),
+					reference.getName(), reference.getType());
 
-					// If the resolved field is in the library, add it to the
-					// result
-					if (hierarchy.isLibraryField(field)) {
-						result.add(field);
-					}
-				}
+			// If the resolved field is in the library, add it to the
+			// result
+			if (hierarchy.isLibraryField(field)) {
+				result.add(field);
 			}
 		}
 
@@ -381,118 +233,49 @@ public class AverroesApplicationConstantPool {
 	}
 
 	/**
-	 * Get all the library fields referenced from the constant pool of application
-	 * classes.
+	 * A visitor that collects the method and field references, and the names of
+	 * the application classes referenced in string constants, in the constant
+	 * pools of the application classes. Each scanning thread has its own
+	 * collector, and a collector only reads the class files, so it never
+	 * touches the Soot scene. The member references are only decoded once per
+	 * distinct reference, after all the class files are scanned.
+	 * 
+	 * @author karim
 	 * 
-	 * @return
 	 */
-	private void findLibraryFieldsInApplicationConstantPool() {
-		libraryFields = new HashSet<SootField>();
-
-		// If we're processing an android apk, process the global field constant
-		// pool
-		if (AverroesOptions.isAndroid()) {
-			libraryFields.addAll(findLibraryFieldsInAndroidApplicationConstantPool());
-		} else {
-			// Add the library methods that appear in the constant pool of
-			// application classes
-			for (SootClass applicationClass : hierarchy.getApplicationClasses()) {
-				libraryFields.addAll(findLibraryFieldsInConstantPool(applicationClass));
-			}
+	private static class ReferenceCollector implements ConstantPoolScanner.Visitor {
+		private Hierarchy hierarchy;
+		private ClassNameAutomaton automaton;
+		private MemberReferenceTable methodReferences = new MemberReferenceTable();
+		private MemberReferenceTable fieldReferences = new MemberReferenceTable();
+		private Set<String> classNames = new HashSet<String>();
+
+		private ReferenceCollector(Hierarchy hierarchy, ClassNameAutomaton automaton) {
+			this.hierarchy = hierarchy;
+			this.automaton = automaton;
 		}
-	}
-
-	private Set<SootMethod> findLibraryMethodsInAndroidApplicationConstantPool() {
-		Set<SootMethod> result = new HashSet<SootMethod>();
-
-		RawDexFile rawDex = SetupAndroid.v().getRawDex();
-		String[] methods = MethodIdItem.getMethods(rawDex);
-		for (String s : methods) {
-			// Sample string:
-			// Landroid/app/PendingIntent;->getActivity(Landroid/content/Context;ILandroid/content/Intent;I)Landroid/app/PendingIntent;
-			/*
-			 * String[] parts = s.split("((?<=;)|\\(|\\))"); // (;|\\(|\\)) Type clazz =
-			 * DexType.toSoot(parts[0]); String methodName = parts[1].substring(2,
-			 * parts[1].length()); int idx = 2; Type[] params = null; if
-			 * (!parts[idx].isEmpty()) { // Parameter list is not empty params = new
-			 * Type[parts.length-3]; while (idx < (parts.length - 1)) { params[idx-2] =
-			 * DexType.toSoot(parts[idx]); idx++; } } else { idx++; } String
-			 * returnTypeString = parts[idx]; if (returnTypeString.charAt(0) == ')')
-			 * returnTypeString = returnTypeString.substring(1); Type returnType =
-			 * DexType.toSoot(parts[idx]);
-			 */
-			String[] parts = s.split("->");
-			String className = "";
-			if (parts[0].startsWith("[J") || parts[0].startsWith("[I")) {
-				className = "Ljava.lang.Object;"; // TODO: why? is that correct?
-			}
 
-			else {
-				className = parts[0];
-			}
-
-			className = className.replace('/', '.');
-			// Remove "L" and ";"
-			className = className.substring(1, className.length() - 1);
-
-			if (className.length() > 1 && AverroesOptions.isLibraryClass(className)) {
-				int idx = parts[1].indexOf('(');
-				String methodName = parts[1].substring(0, idx);
-				String methodDescriptor = parts[1].substring(idx);
-				SootMethod method = BytecodeUtils.makeSootMethod(className, methodName, methodDescriptor);
-				result.add(method);
-			}
+		@Override
+		public boolean visitClass(ClassFileReader cls) {
+			return hierarchy.isApplicationClass(cls.getClassName());
 		}
 
-		return result;
-	}
-
-	private Set<SootField> findLibraryFieldsInAndroidApplicationConstantPool() {
-		Set<SootField> result = new HashSet<SootField>();
-
-		RawDexFile rawDex = SetupAndroid.v().getRawDex();
-		String[] fields = FieldIdItem.getFields(rawDex);
-		for (String s : fields) {
-			String[] parts = s.split("(->|:)");
-
-			String className = parts[0];
-
-			className = className.replace('/', '.');
-			// Remove "L" and ";"
-			className = className.substring(1, className.length() - 1);
-			SootClass cls = Scene.v().getSootClass(className);
-
-			// if (cls.isApplicationClass()) {
-			// continue;
-			// }
-
-			String fieldName = parts[1];
-			String fieldDescriptor = parts[2];
-			Type fieldType = Util.v().jimpleTypeOfFieldDescriptor(fieldDescriptor);
-
-			SootFieldRef fieldRef = Scene.v().makeFieldRef(cls, fieldName, fieldType, false);
-			SootField field;
-
-			/*
-			 * We have to do this ugly code. Try first and see if the field is not static.
-			 * If it is static, then create a new fieldRef in the catch and resolve it again
-			 * with isStatic = true.
-			 */
-			try {
-				field = fieldRef.resolve();
-			} catch (ResolutionFailedException e) {
-				fieldRef = Scene.v().makeFieldRef(cls, fieldName, fieldType, true);
-			}
-			field = fieldRef.resolve();
-
-			// If the resolved field is in the library, add it to the
-			// result
-			if (hierarchy.isLibraryField(field)) {
-				result.add(field);
+		@Override
+		public void visitEntry(ClassFileReader cls, int index) {
+			// The method handles and dynamic call sites refer to entries that
+			// are visited on their own
+			switch (cls.getTag(index)) {
+			case ClassFileReader.CONSTANT_METHODREF:
+			case ClassFileReader.CONSTANT_INTERFACE_METHODREF:
+				methodReferences.add(cls, index);
+				break;
+			case ClassFileReader.CONSTANT_FIELDREF:
+				fieldReferences.add(cls, index);
+				break;
+			case ClassFileReader.CONSTANT_STRING:
+				automaton.match(cls.getString(index), classNames);
+				break;
 			}
 		}
-
-		return result;
 	}
-
 }